@@ -4,52 +4,253 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Refreshes dex_json/ from PokéAPI.
+ *
+ * Requests go out concurrently (at most CONCURRENCY in flight, paced by a
+ * token bucket at RATE per second) and are retried with backoff on network
+ * errors, 429 and 5xx. The ETag / Last-Modified of every saved file is kept
+ * in dex_json/.validators.tsv and sent back as If-None-Match /
+ * If-Modified-Since, so a re-run only downloads dexes that changed, and a
+ * run that dies halfway picks up where it stopped.
+ *
+ * Point DEX_API at a local stub to run it offline, e.g.
+ *   DEX_API=http://localhost:9000/api/v2 java DownloadDexes.java
+ */
 public class DownloadDexes {
 
-  private static final HttpClient client = HttpClient.newHttpClient();
+  private static final String API = env("DEX_API", "https://pokeapi.co/api/v2");
+  private static final int CONCURRENCY = Integer.parseInt(env("CONCURRENCY", "8"));
+  private static final double RATE = Double.parseDouble(env("RATE", "10"));
+  private static final int RETRIES = Integer.parseInt(env("RETRIES", "4"));
+
+  private static final Pattern NAME = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]+)\"");
+
+  private static final HttpClient client = HttpClient.newBuilder()
+      .connectTimeout(Duration.ofSeconds(10))
+      .followRedirects(HttpClient.Redirect.NORMAL)
+      .build();
+
+  private static final TokenBucket limiter = new TokenBucket(RATE, Math.max(1, CONCURRENCY));
 
   public static void main(String[] args) throws Exception {
-    Path outDir = Path.of("dex_json");
+    Path outDir = Path.of(args.length > 0 ? args[0] : "dex_json");
     Files.createDirectories(outDir);
+    Validators validators = Validators.load(outDir.resolve(".validators.tsv"));
+    long start = System.nanoTime();
 
-    // 1) list all pokedexes
-    String listJson = get("https://pokeapi.co/api/v2/pokedex/?limit=2000");
+    // 1) list all pokedexes (always fetched; it's one small request)
+    HttpResponse<byte[]> list = fetch(API + "/pokedex/?limit=2000", null, 0).join();
+    if (list.statusCode() != 200) {
+      throw new IOException("GET failed " + list.statusCode() + " for the pokedex list");
+    }
     // crude parse: extract all "name":"..."
-    Pattern namePattern = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]+)\"");
-    Matcher m = namePattern.matcher(listJson);
+    List<String> names = new ArrayList<>();
+    Matcher m = NAME.matcher(new String(list.body(), StandardCharsets.UTF_8));
+    while (m.find()) names.add(m.group(1));
 
-    int count = 0;
-    while (m.find()) {
-      String dexName = m.group(1);
+    // 2) fetch each pokedex, at most CONCURRENCY at a time
+    AtomicInteger saved = new AtomicInteger();
+    AtomicInteger unchanged = new AtomicInteger();
+    Map<String, String> failed = new ConcurrentHashMap<>();
+    Semaphore inFlight = new Semaphore(CONCURRENCY);
+    List<CompletableFuture<Void>> all = new ArrayList<>();
 
-      // 2) fetch each pokedex JSON
-      String dexJson = get("https://pokeapi.co/api/v2/pokedex/" + dexName + "/");
-
-      // 3) save
-      Files.writeString(outDir.resolve(dexName + ".json"), dexJson, StandardCharsets.UTF_8);
-      count++;
-      System.out.println("Saved: " + dexName);
-      Thread.sleep(150); // be nice to the API
+    for (String dexName : names) {
+      Path file = outDir.resolve(dexName + ".json");
+      // Only send validators for files we still have, or a 304 would leave a hole
+      String[] known = Files.exists(file) ? validators.get(dexName) : null;
+      inFlight.acquire();
+      CompletableFuture<Void> f = fetch(API + "/pokedex/" + dexName + "/", known, 0)
+          .thenAccept(res -> {
+            try {
+              if (res.statusCode() == 304) {
+                unchanged.incrementAndGet();
+                return;
+              }
+              if (res.statusCode() != 200) {
+                failed.put(dexName, "HTTP " + res.statusCode());
+                return;
+              }
+              // 3) save, then remember the validators for next time
+              writeAtomically(file, res.body());
+              validators.put(dexName,
+                  res.headers().firstValue("ETag").orElse(""),
+                  res.headers().firstValue("Last-Modified").orElse(""));
+              saved.incrementAndGet();
+              System.out.println("Saved: " + dexName);
+            } catch (IOException ex) {
+              failed.put(dexName, ex.getMessage());
+            }
+          })
+          .exceptionally(ex -> {
+            failed.put(dexName, String.valueOf(ex.getCause() != null ? ex.getCause() : ex));
+            return null;
+          })
+          .whenComplete((v, ex) -> inFlight.release());
+      all.add(f);
     }
+    CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).join();
 
-    System.out.println("Done. Saved " + count + " dex files into " + outDir.toAbsolutePath());
+    long ms = (System.nanoTime() - start) / 1_000_000;
+    System.out.println("Done in " + ms + " ms. Saved " + saved + ", unchanged " + unchanged
+        + ", failed " + failed.size() + " (" + outDir.toAbsolutePath() + ")");
+    if (!failed.isEmpty()) {
+      failed.forEach((name, why) -> System.out.println("  " + name + ": " + why));
+      System.out.println("Run it again to retry just those.");
+      System.exit(1);
+    }
   }
 
-  private static String get(String url) throws IOException, InterruptedException {
-    HttpRequest req = HttpRequest.newBuilder()
+  /**
+   * GET with conditional headers from known ({etag, lastModified}), retrying
+   * network errors, 429 and 5xx with exponential backoff plus jitter (or the
+   * server's Retry-After when it sends one).
+   */
+  private static CompletableFuture<HttpResponse<byte[]>> fetch(String url, String[] known, int attempt) {
+    HttpRequest.Builder req = HttpRequest.newBuilder()
         .uri(URI.create(url))
+        .timeout(Duration.ofSeconds(30))
         .header("User-Agent", "PokedexTracker/1.0")
-        .GET()
-        .build();
-    HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString());
-    if (res.statusCode() != 200) {
-      throw new IOException("GET failed " + res.statusCode() + " for " + url);
+        .GET();
+    if (known != null && !known[0].isEmpty()) req.header("If-None-Match", known[0]);
+    if (known != null && !known[1].isEmpty()) req.header("If-Modified-Since", known[1]);
+
+    try {
+      limiter.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(ex);
+    }
+
+    return client.sendAsync(req.build(), HttpResponse.BodyHandlers.ofByteArray())
+        .handle((res, ex) -> {
+          boolean retry = ex != null || res.statusCode() == 429 || res.statusCode() >= 500;
+          if (!retry) return CompletableFuture.completedFuture(res);
+          if (attempt >= RETRIES) {
+            return ex != null ? CompletableFuture.<HttpResponse<byte[]>>failedFuture(ex) : CompletableFuture.completedFuture(res);
+          }
+          long delay = backoffMillis(attempt, res);
+          System.out.println("Retrying " + url + " in " + delay + " ms ("
+              + (ex != null ? ex.getClass().getSimpleName() : "HTTP " + res.statusCode()) + ")");
+          return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+              .thenCompose(x -> fetch(url, known, attempt + 1));
+        })
+        .thenCompose(f -> f);
+  }
+
+  private static long backoffMillis(int attempt, HttpResponse<?> res) {
+    if (res != null) {
+      String after = res.headers().firstValue("Retry-After").orElse(null);
+      if (after != null) {
+        try {
+          return Math.min(60_000, Long.parseLong(after.trim()) * 1000);
+        } catch (NumberFormatException ex) {
+          // HTTP-date form; use our own backoff
+        }
+      }
+    }
+    long base = 500L << Math.min(attempt, 6);
+    return base + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+  }
+
+  private static void writeAtomically(Path file, byte[] body) throws IOException {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(tmp, body);
+    try {
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static String env(String key, String def) {
+    return System.getenv().getOrDefault(key, def);
+  }
+
+  /** Allows rate requests per second on average, with bursts of up to burst. */
+  static final class TokenBucket {
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long last = System.nanoTime();
+
+    TokenBucket(double rate, double burst) {
+      this.rate = rate;
+      this.burst = burst;
+      this.tokens = burst;
+    }
+
+    void acquire() throws InterruptedException {
+      while (true) {
+        long waitNanos;
+        synchronized (this) {
+          long now = System.nanoTime();
+          tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+          last = now;
+          if (tokens >= 1) {
+            tokens -= 1;
+            return;
+          }
+          waitNanos = (long) ((1 - tokens) / rate * 1e9);
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+    }
+  }
+
+  /**
+   * name \t etag \t last-modified, one line per saved dex. Rewritten after
+   * every save so an interrupted run keeps what it already fetched.
+   */
+  static final class Validators {
+    private final Path file;
+    private final Map<String, String[]> entries = new TreeMap<>();
+
+    private Validators(Path file) {
+      this.file = file;
+    }
+
+    static Validators load(Path file) throws IOException {
+      Validators v = new Validators(file);
+      if (Files.exists(file)) {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+          String[] parts = line.split("\t", -1);
+          if (parts.length == 3) v.entries.put(parts[0], new String[] {parts[1], parts[2]});
+        }
+      }
+      return v;
+    }
+
+    synchronized String[] get(String name) {
+      return entries.get(name);
+    }
+
+    synchronized void put(String name, String etag, String lastModified) throws IOException {
+      entries.put(name, new String[] {etag, lastModified});
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, String[]> e : entries.entrySet()) {
+        sb.append(e.getKey()).append('\t').append(e.getValue()[0]).append('\t').append(e.getValue()[1]).append('\n');
+      }
+      writeAtomically(file, sb.toString().getBytes(StandardCharsets.UTF_8));
     }
-    return res.body();
   }
 }
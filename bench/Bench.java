@@ -0,0 +1,535 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks for the paths that decide how the tracker feels: writing and
+ * parsing the state JSON, binary snapshots, Entry / AppState JSON, profile
+ * saves, concurrent updates on one profile vs several, and GET /api/state +
+ * PUT /api/pokemon end to end through an in-process HttpServer.
+ *
+ * Each benchmark gets warmup iterations and then measured ones, and reports
+ * the average time per op with a 99.9% confidence interval (JMH's avgt mode)
+ * plus bytes allocated per op and GC counts (what JMH's -prof gc reports).
+ * Results are written in JMH's JSON result format, so runs from different
+ * releases can be compared with the same tools.
+ *
+ * Usage, from the project root (it reads dex_json/ like Main does):
+ *   javac -d out src/*.java && javac -cp out -d out-bench bench/*.java
+ *   java -cp out:out-bench Bench [-f regex] [-wi 3] [-i 5] [-r ms] [-o bench-results.json]
+ */
+class Bench {
+
+    static final int[] SIZES = {10, 1_000, 100_000};
+    static final byte[] ENTRY_BODY = "{\"normal\":true,\"shiny\":false}".getBytes(StandardCharsets.UTF_8);
+
+    // Results go here so the JIT can't drop the work that produced them
+    static volatile Object sink;
+
+    static int warmups = 3;
+    static int iterations = 5;
+    static long iterationMs = 1000;
+
+    static Path tmp;
+
+    /** One call of the code under test; thread is 0..threads-1. */
+    interface Op {
+        void run(int thread) throws Exception;
+    }
+
+    /** Builds the fixture for a case; anything to shut down goes in c.cleanup. */
+    interface Setup {
+        Op create(Case c) throws Exception;
+    }
+
+    static final class Case {
+        final String name;
+        final int threads;
+        final Setup setup;
+        final Map<String, String> params = new LinkedHashMap<>();
+        final List<AutoCloseable> cleanup = new ArrayList<>();
+
+        Case(String name, int threads, Setup setup, String... params) {
+            this.name = name;
+            this.threads = threads;
+            this.setup = setup;
+            for (int i = 0; i + 1 < params.length; i += 2) this.params.put(params[i], params[i + 1]);
+        }
+
+        String label() {
+            StringBuilder sb = new StringBuilder(name);
+            params.forEach((k, v) -> sb.append(' ').append(k).append('=').append(v));
+            if (threads > 1) sb.append(" threads=").append(threads);
+            return sb.toString();
+        }
+    }
+
+    static final class Result {
+        final Case c;
+        final double[] usPerOp;
+        final double allocPerOp;
+        final double allocMbPerSec;
+        final long gcCount;
+        final long gcMs;
+
+        Result(Case c, double[] usPerOp, double allocPerOp, double allocMbPerSec, long gcCount, long gcMs) {
+            this.c = c;
+            this.usPerOp = usPerOp;
+            this.allocPerOp = allocPerOp;
+            this.allocMbPerSec = allocMbPerSec;
+            this.gcCount = gcCount;
+            this.gcMs = gcMs;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double v : usPerOp) sum += v;
+            return sum / usPerOp.length;
+        }
+
+        // Half-width of the 99.9% confidence interval (Student's t, as JMH does)
+        double error() {
+            int n = usPerOp.length;
+            if (n < 2) return Double.NaN;
+            double mean = mean(), sq = 0;
+            for (double v : usPerOp) sq += (v - mean) * (v - mean);
+            return t999(n - 1) * Math.sqrt(sq / (n - 1)) / Math.sqrt(n);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Pattern filter = null;
+        Path out = Path.of("bench-results.json");
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f": filter = Pattern.compile(args[++i]); break;
+                case "-wi": warmups = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-r": iterationMs = Long.parseLong(args[++i]); break;
+                case "-o": out = Path.of(args[++i]); break;
+                default:
+                    System.err.println("Usage: Bench [-f regex] [-wi warmups] [-i iterations] [-r ms] [-o file]");
+                    System.exit(2);
+            }
+        }
+
+        tmp = Files.createTempDirectory("pokedex-bench");
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Case c : cases()) {
+                if (filter != null && !filter.matcher(c.name).find()) continue;
+                Result r = run(c);
+                results.add(r);
+                System.out.printf("%-36s %12.3f ± %9.3f us/op %12.0f B/op %5d GCs%n",
+                    c.label(), r.mean(), r.error(), r.allocPerOp, r.gcCount);
+            }
+        } finally {
+            delete(tmp);
+        }
+
+        try (JsonWriter w = new JsonWriter(Files.newOutputStream(out))) {
+            write(w, results);
+        }
+        System.out.println("Wrote " + out);
+    }
+
+    /* ================= BENCHMARKS ================= */
+
+    static List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        SpeciesIndex species = Profile.SPECIES;
+
+        for (int size : SIZES) {
+            String n = String.valueOf(size);
+
+            // GET /api/state body and the JSON snapshot (was buildStateJson)
+            cases.add(new Case("state.write", 1, c -> {
+                CaughtSet set = caught(size);
+                return t -> {
+                    try (JsonWriter w = JsonWriter.pooled(OutputStream.nullOutputStream())) {
+                        Profile.writeState(w, set, 42);
+                    }
+                };
+            }, "size", n));
+
+            // JSON snapshot load (was loadCaughtFromDisk)
+            cases.add(new Case("state.read", 1, c -> {
+                byte[] json = JsonWriter.toString(w -> Profile.writeState(w, caught(size), 42)).getBytes(StandardCharsets.UTF_8);
+                return t -> {
+                    CaughtSet set = new CaughtSet();
+                    Profile.readState(new JsonReader(ByteBuffer.wrap(json)), set);
+                    sink = set;
+                };
+            }, "size", n));
+
+            cases.add(new Case("snapshot.write", 1, c -> {
+                CaughtSet set = caught(size);
+                Path file = tmp.resolve("write-" + size + ".bin");
+                return t -> Snapshot.write(file, set, 42, species);
+            }, "size", n));
+
+            cases.add(new Case("snapshot.read", 1, c -> {
+                Path file = tmp.resolve("read-" + size + ".bin");
+                Snapshot.write(file, caught(size), 42, species);
+                return t -> {
+                    CaughtSet set = new CaughtSet();
+                    Snapshot.read(file, set, species);
+                    sink = set;
+                };
+            }, "size", n));
+
+            cases.add(new Case("appstate.toJson", 1, c -> {
+                AppState state = appState(size);
+                return t -> sink = state.toJson();
+            }, "size", n));
+
+            cases.add(new Case("appstate.read", 1, c -> {
+                byte[] json = appState(size).toJson().getBytes(StandardCharsets.UTF_8);
+                return t -> sink = AppState.read(new JsonReader(ByteBuffer.wrap(json)));
+            }, "size", n));
+
+            // Snapshot plus log truncate: what compaction and shutdown do (was saveCaughtToDisk)
+            cases.add(new Case("profile.save", 1, c -> {
+                Profile p = profiles(c, "save-" + size, 1)[0];
+                p.caught.replaceWith(caught(size));
+                return t -> p.save();
+            }, "size", n));
+
+            // Full GET /api/state round trip over loopback
+            cases.add(new Case("http.state", 1, c -> {
+                Profile p = profiles(c, "http-" + size, 1)[0];
+                p.caught.replaceWith(caught(size));
+                HttpClient client = client(c);
+                HttpRequest get = HttpRequest.newBuilder(URI.create(base(c, p) + "/api/state")).build();
+                return t -> {
+                    HttpResponse<Void> res = client.send(get, HttpResponse.BodyHandlers.discarding());
+                    if (res.statusCode() != 200) throw new IOException("GET /api/state: " + res.statusCode());
+                };
+            }, "size", n));
+        }
+
+        cases.add(new Case("entry.fromJson", 1, c -> {
+            String json = new String(ENTRY_BODY, StandardCharsets.UTF_8);
+            return t -> sink = Entry.fromJson(json);
+        }));
+
+        // GET /api/search minus the HTTP: bitset filters, name grams, one page
+        Map<String, SearchIndex.Query> queries = new LinkedHashMap<>();
+        queries.put("prefix", query("pi", null, null, null));
+        queries.put("substring", query("saur", null, null, null));
+        queries.put("games", query("", "paldea,-galar", null, false));
+        queries.put("all", query("", "", false, null));
+        for (Map.Entry<String, SearchIndex.Query> q : queries.entrySet()) {
+            cases.add(new Case("search", 1, c -> {
+                CaughtSet set = caught(500);
+                long[] normal = set.words(false);
+                long[] shiny = set.words(true);
+                return t -> sink = Main.SEARCH.search(q.getValue(), normal, shiny);
+            }, "query", q.getKey()));
+        }
+
+        // Four writers on one profile (one lock, one log) vs spread over four
+        for (int count : new int[] {1, 4}) {
+            String n = String.valueOf(count);
+            String[] names = names(1_000);
+
+            cases.add(new Case("profile.set", 4, c -> {
+                Profile[] ps = profiles(c, "set-" + count, count);
+                return t -> {
+                    Profile p = ps[t % ps.length];
+                    p.set(names[ThreadLocalRandom.current().nextInt(names.length)], true, ThreadLocalRandom.current().nextBoolean());
+                    p.persistence.changed();
+                };
+            }, "profiles", n));
+
+            cases.add(new Case("http.pokemon", 4, c -> {
+                Profile[] ps = profiles(c, "put-" + count, count);
+                HttpClient client = client(c);
+                String[] bases = new String[ps.length];
+                for (int i = 0; i < ps.length; i++) bases[i] = base(c, ps[i]) + "/api/pokemon/";
+                return t -> {
+                    String name = names[ThreadLocalRandom.current().nextInt(names.length)];
+                    HttpRequest put = HttpRequest.newBuilder(URI.create(bases[t % bases.length] + name))
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(ENTRY_BODY)).build();
+                    HttpResponse<Void> res = client.send(put, HttpResponse.BodyHandlers.discarding());
+                    if (res.statusCode() != 204) throw new IOException("PUT /api/pokemon: " + res.statusCode());
+                };
+            }, "profiles", n));
+        }
+        return cases;
+    }
+
+    /* ================= FIXTURES ================= */
+
+    static SearchIndex.Query query(String text, String games, Boolean caught, Boolean shiny) {
+        SearchIndex.Query q = new SearchIndex.Query();
+        q.q = text;
+        if (games != null) {
+            for (String g : games.split(",")) {
+                if (g.startsWith("-")) q.notGames.add(g.substring(1));
+                else if (!g.isEmpty()) q.games.add(g);
+            }
+        }
+        q.caught = caught;
+        q.shiny = shiny;
+        return q;
+    }
+
+    // Real species first, then made-up names past the national range
+    static String[] names(int size) {
+        SpeciesIndex species = Profile.SPECIES;
+        String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            String name = i < species.national() ? species.name(i + 1) : null;
+            names[i] = name != null ? name : "bench-" + i;
+        }
+        return names;
+    }
+
+    static CaughtSet caught(int size) {
+        CaughtSet set = new CaughtSet();
+        String[] names = names(size);
+        for (int i = 0; i < size; i++) set.set(Profile.SPECIES.id(names[i]), true, i % 4 == 0);
+        return set;
+    }
+
+    // size entries spread over the games in games.json, one game active
+    static AppState appState(int size) {
+        AppState state = new AppState();
+        List<GameManifest.Game> games = Main.GAMES.games;
+        String[] names = names(size);
+        for (int i = 0; i < size; i++) {
+            String game = games.isEmpty() ? "game" : games.get(i % games.size()).id;
+            state.progress.computeIfAbsent(game, k -> new CaughtSet()).set(Profile.SPECIES.id(names[i]), true, i % 4 == 0);
+            state.activeViewByGame.put(game, "normal");
+        }
+        state.activeGameId = games.isEmpty() ? "game" : games.get(0).id;
+        return state;
+    }
+
+    // Fresh profiles under the temp dir, closed (and saved) after the case
+    static Profile[] profiles(Case c, String prefix, int count) {
+        Profile[] ps = new Profile[count];
+        for (int i = 0; i < count; i++) {
+            String id = prefix + "-" + i;
+            Profile p = Profile.open(id, tmp.resolve(id), Main.GAMES, Main.DEX);
+            c.cleanup.add(p::close);
+            ps[i] = p;
+        }
+        return ps;
+    }
+
+    // Base URL of p on a loopback server running Main's handlers (one server per case)
+    static String base(Case c, Profile p) throws IOException {
+        HttpServer server = null;
+        for (AutoCloseable a : c.cleanup) {
+            if (a instanceof ServerHandle) server = ((ServerHandle) a).server;
+        }
+        if (server == null) {
+            server = Main.createServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            ExecutorService executor = RequestExecutors.create("platform", 8);
+            server.setExecutor(executor);
+            server.start();
+            c.cleanup.add(0, new ServerHandle(server, executor));
+        }
+        String prefix = "/" + p.id;
+        Main.route(server, prefix + "/api/state", e -> Main.handleState(e, p));
+        Main.route(server, prefix + "/api/pokemon", e ->
+            Main.handlePokemon(e, p, e.getRequestURI().getPath().substring((prefix + "/api/pokemon").length())));
+        return "http://127.0.0.1:" + server.getAddress().getPort() + prefix;
+    }
+
+    static final class ServerHandle implements AutoCloseable {
+        final HttpServer server;
+        final ExecutorService executor;
+
+        ServerHandle(HttpServer server, ExecutorService executor) {
+            this.server = server;
+            this.executor = executor;
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    static HttpClient client(Case c) {
+        ExecutorService executor = Executors.newFixedThreadPool(c.threads, RequestExecutors.named("bench-client"));
+        c.cleanup.add(executor::shutdownNow);
+        return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).build();
+    }
+
+    /* ================= HARNESS ================= */
+
+    static Result run(Case c) throws Exception {
+        Op op = c.setup.create(c);
+        ExecutorService pool = c.threads > 1 ? Executors.newFixedThreadPool(c.threads, RequestExecutors.named("bench")) : null;
+        try {
+            for (int i = 0; i < warmups; i++) iteration(op, c.threads, pool);
+
+            double[] usPerOp = new double[iterations];
+            long ops = 0, nanos = 0;
+            long alloc = allocated();
+            long[] gc = gc();
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                long n = iteration(op, c.threads, pool);
+                long elapsed = System.nanoTime() - start;
+                usPerOp[i] = elapsed * (double) c.threads / n / 1000;
+                ops += n;
+                nanos += elapsed;
+            }
+            // Threads that exit mid-run take their counters with them; never report less than nothing
+            long bytes = Math.max(0, allocated() - alloc);
+            long[] gcAfter = gc();
+            return new Result(c, usPerOp, (double) bytes / ops, bytes / (nanos / 1e9) / (1 << 20),
+                gcAfter[0] - gc[0], gcAfter[1] - gc[1]);
+        } finally {
+            if (pool != null) pool.shutdownNow();
+            for (AutoCloseable a : c.cleanup) {
+                try {
+                    a.close();
+                } catch (Exception ex) {
+                    System.err.println("Cleanup after " + c.label() + " failed: " + ex);
+                }
+            }
+        }
+    }
+
+    // Runs op for iterationMs on each thread; returns the number of ops done
+    static long iteration(Op op, int threads, ExecutorService pool) throws Exception {
+        if (pool == null) return loop(op, 0, System.nanoTime() + iterationMs * 1_000_000);
+
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Long>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            done.add(pool.submit(() -> {
+                go.await();
+                return loop(op, thread, System.nanoTime() + iterationMs * 1_000_000);
+            }));
+        }
+        go.countDown();
+        long ops = 0;
+        for (Future<Long> f : done) ops += f.get();
+        return ops;
+    }
+
+    private static long loop(Op op, int thread, long deadline) throws Exception {
+        long n = 0;
+        do {
+            op.run(thread);
+            n++;
+        } while (System.nanoTime() < deadline);
+        return n;
+    }
+
+    // Bytes allocated so far by every live thread, client and server included
+    static long allocated() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sum = 0;
+        for (long b : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (b > 0) sum += b;
+        }
+        return sum;
+    }
+
+    // {collections, ms} over all collectors
+    static long[] gc() {
+        long count = 0, ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            ms += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, ms};
+    }
+
+    // Two-sided 99.9% Student's t quantile (0.9995) for df degrees of freedom
+    static double t999(int df) {
+        double[] table = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+            4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850};
+        if (df <= table.length) return table[df - 1];
+        return df <= 60 ? 3.460 : 3.291;
+    }
+
+    /* ================= OUTPUT ================= */
+
+    // Same shape as JMH's -rf json output
+    static void write(JsonWriter w, List<Result> results) throws IOException {
+        w.beginArray();
+        for (Result r : results) {
+            w.beginObject();
+            w.name("benchmark").value("Bench." + r.c.name);
+            w.name("mode").value("avgt");
+            w.name("threads").value(r.c.threads);
+            w.name("forks").value(0);
+            w.name("jvm").value(System.getProperty("java.home"));
+            w.name("jdkVersion").value(System.getProperty("java.version"));
+            w.name("warmupIterations").value(warmups);
+            w.name("warmupTime").value(iterationMs + " ms");
+            w.name("measurementIterations").value(iterations);
+            w.name("measurementTime").value(iterationMs + " ms");
+            if (!r.c.params.isEmpty()) {
+                w.name("params").beginObject();
+                for (Map.Entry<String, String> p : r.c.params.entrySet()) w.name(p.getKey()).value(p.getValue());
+                w.endObject();
+            }
+
+            double mean = r.mean(), error = r.error();
+            w.name("primaryMetric").beginObject();
+            w.name("score").value(mean);
+            w.name("scoreError").value(error);
+            w.name("scoreConfidence").beginArray().value(mean - error).value(mean + error).endArray();
+            w.name("scoreUnit").value("us/op");
+            w.name("rawData").beginArray().beginArray();
+            for (double v : r.usPerOp) w.value(v);
+            w.endArray().endArray();
+            w.endObject();
+
+            w.name("secondaryMetrics").beginObject();
+            metric(w, "·gc.alloc.rate", r.allocMbPerSec, "MB/sec");
+            metric(w, "·gc.alloc.rate.norm", r.allocPerOp, "B/op");
+            metric(w, "·gc.count", r.gcCount, "counts");
+            metric(w, "·gc.time", r.gcMs, "ms");
+            w.endObject();
+            w.endObject();
+        }
+        w.endArray();
+    }
+
+    private static void metric(JsonWriter w, String name, double score, String unit) throws IOException {
+        w.name(name).beginObject().name("score").value(score).name("scoreUnit").value(unit).endObject();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a browser-like mix of requests against a running Main at a fixed
+ * rate and reports throughput and latency percentiles per request kind.
+ *
+ * The schedule is open-loop: request i is due at start + i/rate (or at
+ * Poisson arrivals with -poisson) whether or not earlier ones have answered,
+ * and its latency counts from when it was due, not when it went out. A
+ * server that stalls therefore shows up in the percentiles as the queue it
+ * would build in front of real users, instead of quietly slowing the
+ * generator down (coordinated omission).
+ *
+ * Kinds (weights via -mix):
+ *   poll     GET /api/state?since=<last version> with If-None-Match, as app.js does
+ *   state    GET /api/state, the full body
+ *   pokemon  PUT /api/pokemon/<random species>
+ *   static   GET /, /static/app.js, /static/styles.css, /static/data/games.json
+ *   dex      GET /api/dex/<random dex>
+ *
+ * With -profiles N the poll/state/pokemon requests are spread over profiles
+ * lt-0 .. lt-(N-1) (/api/profiles/<id>/...) instead of the default profile.
+ *
+ * Usage:
+ *   java -cp out:out-bench LoadGen [-url http://localhost:8080] [-rate 500] [-duration 30]
+ *       [-warmup 5] [-mix poll=40,state=15,pokemon=25,static=15,dex=5] [-profiles 0]
+ *       [-poisson] [-max-in-flight 10000] [-o loadgen.json]
+ */
+class LoadGen {
+
+    static final String[] STATIC = {"/", "/static/app.js", "/static/styles.css", "/static/data/games.json"};
+
+    static final class Kind {
+        final String name;
+        final int weight;
+        final Metrics.Histogram latency = new Metrics.Histogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        volatile String lastError;
+
+        Kind(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        void record(long nanos, boolean success) {
+            latency.record(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            if (success) ok.increment();
+            else errors.increment();
+        }
+
+        long count() {
+            return ok.sum() + errors.sum();
+        }
+    }
+
+    static String url = "http://localhost:8080";
+    static double rate = 500;
+    static int durationSec = 30;
+    static int warmupSec = 5;
+    static int profiles = 0;
+    static boolean poisson;
+    static int maxInFlight = 10_000;
+
+    static HttpClient client;
+    static List<Kind> kinds = new ArrayList<>();
+    static String[] species;
+    static String[] dexes;
+
+    // Last version/ETag seen per profile, for the conditional polls
+    static AtomicReferenceArray<String> etags;
+    static AtomicReferenceArray<String> versions;
+
+    public static void main(String[] args) throws Exception {
+        String mix = "poll=40,state=15,pokemon=25,static=15,dex=5";
+        Path out = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-url": url = args[++i].replaceAll("/+$", ""); break;
+                case "-rate": rate = Double.parseDouble(args[++i]); break;
+                case "-duration": durationSec = Integer.parseInt(args[++i]); break;
+                case "-warmup": warmupSec = Integer.parseInt(args[++i]); break;
+                case "-mix": mix = args[++i]; break;
+                case "-profiles": profiles = Integer.parseInt(args[++i]); break;
+                case "-poisson": poisson = true; break;
+                case "-max-in-flight": maxInFlight = Integer.parseInt(args[++i]); break;
+                case "-o": out = Path.of(args[++i]); break;
+                default:
+                    System.err.println("Usage: LoadGen [-url u] [-rate r] [-duration s] [-warmup s] [-mix k=w,..]"
+                        + " [-profiles n] [-poisson] [-max-in-flight n] [-o file]");
+                    System.exit(2);
+            }
+        }
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight > 0) kinds.add(new Kind(kv[0].trim(), weight));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors()), RequestExecutors.named("loadgen"));
+        client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(executor)
+            .build();
+        species = names(get("/api/dex/national"), "apiName");
+        dexes = names(get("/api/dex"), "name");
+        int slots = Math.max(1, profiles);
+        etags = new AtomicReferenceArray<>(slots);
+        versions = new AtomicReferenceArray<>(slots);
+
+        System.out.printf("%s: %.0f req/s for %ds (+%ds warmup), %s arrivals, mix %s%n",
+            url, rate, durationSec, warmupSec, poisson ? "Poisson" : "uniform", mix);
+        long[] window = run();
+        executor.shutdownNow();
+
+        report(window);
+        if (out != null) {
+            try (JsonWriter w = new JsonWriter(Files.newOutputStream(out))) {
+                write(w, window);
+            }
+            System.out.println("Wrote " + out);
+        }
+    }
+
+    /* ================= SCHEDULE ================= */
+
+    // Returns {sent in the measured window, dropped, window nanos}
+    static long[] run() throws InterruptedException {
+        int totalWeight = kinds.stream().mapToInt(k -> k.weight).sum();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long periodNanos = (long) (1e9 / rate);
+        long start = System.nanoTime() + 10_000_000;
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSec);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSec);
+        long sent = 0, dropped = 0;
+
+        long due = start;
+        while (due < end) {
+            // Behind schedule: send right away, the latency still counts from due
+            for (long wait; (wait = due - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+
+            boolean measured = due >= measureFrom;
+            Kind kind = pick(totalWeight);
+            if (!inFlight.tryAcquire()) {
+                // Too far behind to keep going; counts as a failed request
+                if (measured) {
+                    kind.errors.increment();
+                    dropped++;
+                }
+            } else {
+                long intended = due;
+                HttpRequest req = request(kind);
+                client.sendAsync(req, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((res, ex) -> {
+                    long latency = System.nanoTime() - intended;
+                    inFlight.release();
+                    if (ex == null) seen(req, res);
+                    boolean ok = ex == null && res.statusCode() < 400;
+                    if (!ok) kind.lastError = ex != null ? String.valueOf(ex.getCause() != null ? ex.getCause() : ex) : "HTTP " + res.statusCode();
+                    if (measured) kind.record(latency, ok);
+                });
+                if (measured) sent++;
+            }
+            due += poisson ? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * periodNanos) : periodNanos;
+        }
+        // Let the stragglers finish (or time out) so they count
+        inFlight.tryAcquire(maxInFlight, 30, TimeUnit.SECONDS);
+        return new long[] {sent, dropped, end - measureFrom};
+    }
+
+    static Kind pick(int totalWeight) {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Kind k : kinds) {
+            if ((r -= k.weight) < 0) return k;
+        }
+        return kinds.get(kinds.size() - 1);
+    }
+
+    static HttpRequest request(Kind kind) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int slot = profiles > 0 ? rnd.nextInt(profiles) : 0;
+        String api = profiles > 0 ? "/api/profiles/lt-" + slot : "/api";
+        switch (kind.name) {
+            case "poll": {
+                String version = versions.get(slot);
+                HttpRequest.Builder b = HttpRequest.newBuilder(uri(api + "/state" + (version != null ? "?since=" + version : "")));
+                String etag = etags.get(slot);
+                if (etag != null) b.header("If-None-Match", etag);
+                return b.build();
+            }
+            case "state":
+                return HttpRequest.newBuilder(uri(api + "/state")).build();
+            case "pokemon": {
+                boolean shiny = rnd.nextInt(4) == 0;
+                boolean normal = shiny || rnd.nextBoolean();
+                String body = "{\"normal\":" + normal + ",\"shiny\":" + shiny + "}";
+                return HttpRequest.newBuilder(uri(api + "/pokemon/" + species[rnd.nextInt(species.length)]))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(body)).build();
+            }
+            case "static":
+                return HttpRequest.newBuilder(uri(STATIC[rnd.nextInt(STATIC.length)])).build();
+            case "dex":
+                return HttpRequest.newBuilder(uri("/api/dex/" + dexes[rnd.nextInt(dexes.length)])).build();
+            default:
+                throw new IllegalArgumentException("Unknown request kind: " + kind.name);
+        }
+    }
+
+    // Keeps the conditional polls realistic: they ask for what changed since the last full look
+    static void seen(HttpRequest req, HttpResponse<byte[]> res) {
+        if (res.statusCode() != 200 || !req.uri().getPath().endsWith("/state")) return;
+        String path = req.uri().getPath();
+        int slot = path.startsWith("/api/profiles/lt-")
+            ? Integer.parseInt(path.substring("/api/profiles/lt-".length(), path.indexOf('/', "/api/profiles/".length()))) : 0;
+        res.headers().firstValue("ETag").ifPresent(etag -> {
+            etags.set(slot, etag);
+            // "<boot>-<version>", which is also what ?since= takes
+            if (etag.length() > 2) versions.set(slot, etag.substring(1, etag.length() - 1));
+        });
+    }
+
+    static URI uri(String path) {
+        return URI.create(url + path);
+    }
+
+    /* ================= SETUP ================= */
+
+    static byte[] get(String path) throws IOException, InterruptedException {
+        HttpResponse<byte[]> res = client.send(HttpRequest.newBuilder(uri(path)).build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (res.statusCode() != 200) throw new IOException("GET " + path + " failed: " + res.statusCode());
+        return res.body();
+    }
+
+    // Values of field from a JSON array of objects
+    static String[] names(byte[] json, String field) throws IOException {
+        List<String> names = new ArrayList<>();
+        JsonReader r = new JsonReader(ByteBuffer.wrap(json));
+        r.beginArray();
+        while (r.hasNext()) {
+            r.beginObject();
+            while (r.hasNext()) {
+                if (r.nextName().equals(field)) names.add(r.nextString());
+                else r.skipValue();
+            }
+            r.endObject();
+        }
+        r.endArray();
+        if (names.isEmpty()) throw new IOException("No " + field + " values from the server");
+        return names.toArray(new String[0]);
+    }
+
+    /* ================= REPORT ================= */
+
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    static final String[] LABELS = {"p50", "p90", "p99", "p99.9"};
+
+    static void report(long[] window) {
+        double seconds = window[2] / 1e9;
+        long total = kinds.stream().mapToLong(Kind::count).sum();
+        long errors = kinds.stream().mapToLong(k -> k.errors.sum()).sum();
+        System.out.printf("Sent %d in %.1fs: %.1f req/s achieved (target %.0f), %d errors, %d dropped%n",
+            window[0], seconds, total / seconds, rate, errors, window[1]);
+        System.out.printf("%-8s %8s %7s", "kind", "count", "errors");
+        for (String label : LABELS) System.out.printf(" %9s", label);
+        System.out.printf(" %9s   (ms)%n", "max");
+        for (Kind k : kinds) {
+            System.out.printf("%-8s %8d %7d", k.name, k.count(), k.errors.sum());
+            for (double q : QUANTILES) System.out.printf(" %9.2f", k.latency.quantile(q) / 1e6);
+            System.out.printf(" %9.2f%n", k.maxNanos.get() / 1e6);
+        }
+        for (Kind k : kinds) {
+            if (k.lastError != null) System.out.println("Last " + k.name + " error: " + k.lastError);
+        }
+    }
+
+    static void write(JsonWriter w, long[] window) throws IOException {
+        double seconds = window[2] / 1e9;
+        w.beginObject();
+        w.name("url").value(url).name("targetRate").value(rate).name("durationSec").value(durationSec);
+        w.name("arrivals").value(poisson ? "poisson" : "uniform").name("profiles").value(profiles);
+        w.name("sent").value(window[0]).name("dropped").value(window[1]);
+        w.name("throughput").value(kinds.stream().mapToLong(Kind::count).sum() / seconds);
+        w.name("kinds").beginObject();
+        for (Kind k : kinds) {
+            w.name(k.name).beginObject();
+            w.name("count").value(k.count()).name("errors").value(k.errors.sum());
+            w.name("latencyMs").beginObject();
+            for (int i = 0; i < QUANTILES.length; i++) w.name(LABELS[i]).value(k.latency.quantile(QUANTILES[i]) / 1e6);
+            w.name("max").value(k.maxNanos.get() / 1e6);
+            w.endObject();
+            w.endObject();
+        }
+        w.endObject();
+        w.endObject();
+    }
+}
@@ -0,0 +1,233 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Stand-in for pokeapi.co and the sprite host, so the build tools and load
+ * tests run without a network:
+ *
+ *   GET /api/v2/pokedex/?limit=N          list of the dexes in dex_json/
+ *   GET /api/v2/pokedex/<name>/           dex_json/<name>.json, with ETag /
+ *                                         Last-Modified and 304s
+ *   GET /api/v2/pokemon-species/<name>/   {"id":..,"name":..} from national.json
+ *   GET .../sprites/pokemon/[shiny/]<id>.png
+ *                                         from -sprites dir (same layout as
+ *                                         PokeAPI/sprites), else a blank 96x96 PNG
+ *
+ * -latency adds a fixed delay to every response and -errors answers that
+ * fraction of API requests with 503 or 429 (Retry-After: 1), to exercise the
+ * retry paths.
+ *
+ * Usage:
+ *   java -cp out:out-bench StubPokeApi [-port 9000] [-dex dex_json] [-sprites dir]
+ *                                      [-latency ms] [-errors 0.05]
+ *   DEX_API=http://localhost:9000/api/v2 java DownloadDexes.java /tmp/dex_json
+ */
+class StubPokeApi {
+
+    static final Pattern SPRITE = Pattern.compile(".*/sprites/pokemon/(shiny/)?(\\d+)\\.png");
+    static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    static Path dexDir = Path.of("dex_json");
+    static Path spriteDir;
+    static long latencyMs;
+    static double errorRate;
+
+    static SpeciesIndex species;
+    static byte[] blankSprite;
+
+    // Dex bytes plus their validators, read once
+    static final Map<String, Doc> docs = new ConcurrentHashMap<>();
+
+    static final class Doc {
+        final byte[] body;
+        final String etag;
+        final String lastModified;
+
+        Doc(byte[] body, String etag, String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 9000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-port": port = Integer.parseInt(args[++i]); break;
+                case "-dex": dexDir = Path.of(args[++i]); break;
+                case "-sprites": spriteDir = Path.of(args[++i]); break;
+                case "-latency": latencyMs = Long.parseLong(args[++i]); break;
+                case "-errors": errorRate = Double.parseDouble(args[++i]); break;
+                default:
+                    System.err.println("Usage: StubPokeApi [-port 9000] [-dex dir] [-sprites dir] [-latency ms] [-errors 0..1]");
+                    System.exit(2);
+            }
+        }
+        species = SpeciesIndex.load(dexDir.resolve("national.json"));
+        blankSprite = blank(96);
+
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("0.0.0.0", port), 0);
+        server.createContext("/api/v2/pokedex", e -> handle(e, true, StubPokeApi::pokedex));
+        server.createContext("/api/v2/pokemon-species", e -> handle(e, true, StubPokeApi::species));
+        server.createContext("/", e -> handle(e, false, StubPokeApi::sprite));
+        server.setExecutor(Executors.newFixedThreadPool(16, RequestExecutors.named("stub")));
+        server.start();
+        System.out.println("Stub PokéAPI on http://localhost:" + port + "/api/v2 (" + dexNames().size() + " dexes"
+            + (spriteDir != null ? ", sprites from " + spriteDir : ", blank sprites") + ")");
+    }
+
+    interface Route {
+        void serve(HttpExchange e, String rest) throws IOException;
+    }
+
+    private static void handle(HttpExchange e, boolean api, Route route) throws IOException {
+        try {
+            if (latencyMs > 0) Thread.sleep(latencyMs);
+            if (!e.getRequestMethod().equals("GET")) {
+                e.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (api && errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                boolean limited = ThreadLocalRandom.current().nextBoolean();
+                if (limited) e.getResponseHeaders().set("Retry-After", "1");
+                e.sendResponseHeaders(limited ? 429 : 503, -1);
+                return;
+            }
+            String path = e.getRequestURI().getPath();
+            String rest = path.substring(e.getHttpContext().getPath().length());
+            route.serve(e, trim(rest));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            e.sendResponseHeaders(503, -1);
+        } finally {
+            e.close();
+        }
+    }
+
+    // "/galar/" -> "galar"
+    private static String trim(String s) {
+        int from = 0, to = s.length();
+        while (from < to && s.charAt(from) == '/') from++;
+        while (to > from && s.charAt(to - 1) == '/') to--;
+        return s.substring(from, to);
+    }
+
+    private static void pokedex(HttpExchange e, String name) throws IOException {
+        if (name.isEmpty()) {
+            String base = "http://" + e.getRequestHeaders().getFirst("Host") + "/api/v2/pokedex/";
+            List<String> names = dexNames();
+            send(e, 200, JsonWriter.toString(w -> {
+                w.beginObject().name("count").value(names.size()).name("next").nullValue().name("previous").nullValue();
+                w.name("results").beginArray();
+                for (String n : names) w.beginObject().name("name").value(n).name("url").value(base + n + "/").endObject();
+                w.endArray().endObject();
+            }).getBytes(StandardCharsets.UTF_8), "application/json");
+            return;
+        }
+        Doc doc = doc(name);
+        if (doc == null) {
+            e.sendResponseHeaders(404, -1);
+            return;
+        }
+        e.getResponseHeaders().set("ETag", doc.etag);
+        e.getResponseHeaders().set("Last-Modified", doc.lastModified);
+        if (doc.etag.equals(e.getRequestHeaders().getFirst("If-None-Match"))
+                || doc.lastModified.equals(e.getRequestHeaders().getFirst("If-Modified-Since"))) {
+            e.sendResponseHeaders(304, -1);
+            return;
+        }
+        send(e, 200, doc.body, "application/json");
+    }
+
+    private static void species(HttpExchange e, String name) throws IOException {
+        int id = species.find(name);
+        if (id < 0) {
+            e.sendResponseHeaders(404, -1);
+            return;
+        }
+        send(e, 200, JsonWriter.toString(w -> w.beginObject().name("id").value(id).name("name").value(name).endObject())
+            .getBytes(StandardCharsets.UTF_8), "application/json");
+    }
+
+    private static void sprite(HttpExchange e, String path) throws IOException {
+        Matcher m = SPRITE.matcher("/" + path);
+        if (!m.matches()) {
+            e.sendResponseHeaders(404, -1);
+            return;
+        }
+        byte[] png = blankSprite;
+        if (spriteDir != null) {
+            Path file = spriteDir.resolve((m.group(1) != null ? "shiny/" : "") + m.group(2) + ".png");
+            if (!Files.isRegularFile(file)) {
+                e.sendResponseHeaders(404, -1);
+                return;
+            }
+            png = Files.readAllBytes(file);
+        }
+        send(e, 200, png, "image/png");
+    }
+
+    private static void send(HttpExchange e, int status, byte[] body, String type) throws IOException {
+        e.getResponseHeaders().set("Content-Type", type);
+        e.sendResponseHeaders(status, body.length);
+        try (OutputStream out = e.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static List<String> dexNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dexDir)) {
+            files.map(p -> p.getFileName().toString())
+                .filter(f -> f.endsWith(".json") && !f.startsWith("."))
+                .sorted()
+                .forEach(f -> names.add(f.substring(0, f.length() - ".json".length())));
+        }
+        return names;
+    }
+
+    private static Doc doc(String name) throws IOException {
+        if (name.contains("/") || name.contains("\\") || name.startsWith(".")) return null;
+        Doc doc = docs.get(name);
+        if (doc != null) return doc;
+        Path file = dexDir.resolve(name + ".json");
+        if (!Files.isRegularFile(file)) return null;
+        byte[] body = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        doc = new Doc(body, "\"" + Long.toHexString(crc.getValue()) + "\"",
+            HTTP_DATE.format(Files.getLastModifiedTime(file).toInstant()));
+        docs.put(name, doc);
+        return doc;
+    }
+
+    private static byte[] blank(int size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB), "png", out);
+        return out.toByteArray();
+    }
+}
@@ -1,42 +1,82 @@
+import java.io.IOException;
 import java.util.*;
 
 public class AppState {
   public String activeGameId;
   public Map<String,String> activeViewByGame = new HashMap<>();
-  public Map<String,Map<String,Entry>> progress = new HashMap<>();
+  // per game: normal/shiny bits by species id (names via SpeciesIndex)
+  public Map<String,CaughtSet> progress = new HashMap<>();
+  // bumped by StateStore on every change since it loaded; not saved
+  public long version;
+
+  // Copy for the next snapshot: the maps are new, the CaughtSets are shared
+  // (StateStore copies a game's set before changing it)
+  AppState copy() {
+    AppState s=new AppState();
+    s.activeGameId=activeGameId;
+    s.activeViewByGame=new HashMap<>(activeViewByGame);
+    s.progress=new HashMap<>(progress);
+    return s;
+  }
 
   public String toJson() {
-    StringBuilder sb = new StringBuilder("{");
-    sb.append("\"activeGameId\":").append(activeGameId==null?"null":"\""+activeGameId+"\"").append(",");
-    sb.append("\"activeViewByGame\":").append(map(activeViewByGame)).append(",");
-    sb.append("\"progress\":").append(progress());
-    sb.append("}");
-    return sb.toString();
+    return JsonWriter.toString(this::write);
   }
 
-  private String map(Map<String,String> m){
-    StringBuilder sb=new StringBuilder("{");
-    int i=0;
-    for(var e:m.entrySet()){
-      if(i++>0) sb.append(",");
-      sb.append("\"").append(e.getKey()).append("\":\"").append(e.getValue()).append("\"");
+  void write(JsonWriter w) throws IOException {
+    w.beginObject();
+    w.name("activeGameId").value(activeGameId);
+    w.name("activeViewByGame").beginObject();
+    for(var e:activeViewByGame.entrySet()) w.name(e.getKey()).value(e.getValue());
+    w.endObject();
+    w.name("progress").beginObject();
+    SpeciesIndex names=SpeciesIndex.shared();
+    for(var game:progress.entrySet()){
+      w.name(game.getKey()).beginObject();
+      game.getValue().copy().forEach((id,normal,shiny)->{
+        w.name(names.name(id));
+        Entry.write(w,normal,shiny);
+      });
+      w.endObject();
     }
-    return sb.append("}").toString();
+    w.endObject();
+    w.endObject();
   }
 
-  private String progress(){
-    StringBuilder sb=new StringBuilder("{");
-    int g=0;
-    for(var game:progress.entrySet()){
-      if(g++>0) sb.append(",");
-      sb.append("\"").append(game.getKey()).append("\":{");
-      int p=0;
-      for(var mon:game.getValue().entrySet()){
-        if(p++>0) sb.append(",");
-        sb.append("\"").append(mon.getKey()).append("\":").append(mon.getValue().toJson());
+  // Unknown fields are skipped, so older or foreign files load as empty state
+  static AppState read(JsonReader r) throws IOException {
+    AppState s=new AppState();
+    SpeciesIndex names=SpeciesIndex.shared();
+    r.beginObject();
+    while(r.hasNext()){
+      switch(r.nextName()){
+        case "activeGameId": s.activeGameId=r.nextStringOrNull(); break;
+        case "activeViewByGame":
+          r.beginObject();
+          while(r.hasNext()){
+            String game=r.nextName();
+            s.activeViewByGame.put(game,r.nextString());
+          }
+          r.endObject();
+          break;
+        case "progress":
+          r.beginObject();
+          while(r.hasNext()){
+            CaughtSet set=s.progress.computeIfAbsent(r.nextName(),k->new CaughtSet());
+            r.beginObject();
+            while(r.hasNext()){
+              int id=names.id(r.nextName());
+              Entry e=Entry.read(r);
+              set.set(id,e.normal,e.shiny);
+            }
+            r.endObject();
+          }
+          r.endObject();
+          break;
+        default: r.skipValue();
       }
-      sb.append("}");
     }
-    return sb.append("}").toString();
+    r.endObject();
+    return s;
   }
 }
@@ -0,0 +1,99 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Builds every game's dex data in one go, replacing the per-game DexToGames
+ * runs: reads static/data/games.json, stream-parses all of dex_json/ (in
+ * parallel, through DexCatalog) plus the Legends: Z-A sections, and writes
+ *
+ *   static/data/catalog.json  {"format":1,"hash":"..","games":[{"id","name",
+ *                              "sections":[{"id","name","dex","pokemon":[..]}]}]}
+ *
+ * The server builds the same lists itself at startup (DexCatalog), so this
+ * is an export for other tools, and a check: it exits non-zero when a
+ * section in games.json names a dex that doesn't exist.
+ *
+ * Usage: java -cp out BuildCatalog
+ */
+class BuildCatalog {
+
+    static final int FORMAT = 1;
+
+    static final Path JSON_OUT = Path.of("static/data/catalog.json");
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+
+        GameManifest games = GameManifest.load(GameManifest.FILE);
+        if (games.games.isEmpty()) {
+            System.err.println("No games in " + GameManifest.FILE);
+            System.exit(1);
+        }
+        DexCatalog catalog = DexCatalog.load(Path.of("dex_json"), Path.of("static/data/lza.json"), games);
+
+        int missing = 0;
+        for (GameManifest.Game g : games.games) {
+            for (GameManifest.Section s : g.sections) {
+                if (catalog.get(s.dex) == null) {
+                    System.err.println("WARNING: no dex \"" + s.dex + "\" for " + g.id + "/" + s.id);
+                    missing++;
+                }
+            }
+        }
+
+        // Hash the games part first so the header can say which content it is
+        byte[] body = gamesJson(games, catalog);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        String hash = Long.toHexString(crc.getValue());
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream(body.length + 64);
+        try (JsonWriter w = new JsonWriter(json)) {
+            w.beginObject().name("format").value(FORMAT).name("hash").value(hash).name("games").rawValue(body).endObject();
+        }
+        writeAtomically(JSON_OUT, json.toByteArray());
+        System.out.println("Wrote " + JSON_OUT + " (" + json.size() + " bytes)");
+
+        System.out.printf("Built %d games in %d ms%n", games.games.size(), (System.nanoTime() - start) / 1_000_000);
+        if (missing > 0) System.exit(1);
+    }
+
+    private static byte[] gamesJson(GameManifest games, DexCatalog catalog) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+        try (JsonWriter w = new JsonWriter(out)) {
+            w.beginArray();
+            for (GameManifest.Game g : games.games) {
+                w.beginObject().name("id").value(g.id).name("name").value(g.name).name("sections").beginArray();
+                for (GameManifest.Section s : g.sections) {
+                    w.beginObject().name("id").value(s.id).name("name").value(s.name).name("dex").value(s.dex);
+                    w.name("pokemon");
+                    DexCatalog.Dex d = catalog.get(s.dex);
+                    if (d != null) DexCatalog.write(w, d);
+                    else w.beginArray().endArray();
+                    w.endObject();
+                }
+                w.endArray().endObject();
+            }
+            w.endArray();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeAtomically(Path file, byte[] bytes) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            out.write(bytes);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
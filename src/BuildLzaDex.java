@@ -5,6 +5,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.*;
 
 class BuildLzaDex {
@@ -15,6 +17,14 @@ class BuildLzaDex {
   // very small JSON extractor: "id": 25
   private static final Pattern ID_FIELD = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
 
+  // apiName -> national id for names national.json doesn't have, filled from PokéAPI
+  private static final Path ID_CACHE = Paths.get("data/species_ids.tsv");
+
+  private static final String API = System.getenv().getOrDefault("DEX_API", "https://pokeapi.co/api/v2");
+
+  // species lookups sent at once for names missing from both of the above
+  private static final int BATCH = 8;
+
   // Special name -> PokéAPI species slug overrides
   private static final Map<String, String> SPECIAL = new HashMap<>();
   static {
@@ -72,8 +82,12 @@ class BuildLzaDex {
         .connectTimeout(Duration.ofSeconds(20))
         .build();
 
-    List<Entry> base = parseDex(baseLines, client, "Base");
-    List<Entry> dlc  = parseDex(dlcLines,  client, "DLC");
+    List<Entry> base = parseDex(baseLines, "Base");
+    List<Entry> dlc  = parseDex(dlcLines,  "DLC");
+
+    List<Entry> all = new ArrayList<>(base);
+    all.addAll(dlc);
+    resolveSpeciesIds(all, client);
 
     // Write JSON: data/lza.json
     Path out = Paths.get("data/lza.json");
@@ -85,7 +99,7 @@ class BuildLzaDex {
     System.out.println("DLC entries: " + dlc.size());
   }
 
-  private static List<Entry> parseDex(List<String> lines, HttpClient client, String label) throws Exception {
+  private static List<Entry> parseDex(List<String> lines, String label) {
     List<Entry> out = new ArrayList<>();
 
     // Format in your paste is:
@@ -105,10 +119,8 @@ class BuildLzaDex {
       // We take the first name line as the display name
       String displayName = nameLine;
 
-      String apiName = toApiName(displayName);
-      int speciesId = fetchSpeciesId(client, apiName);
-
-      out.add(new Entry(num, displayName, apiName, speciesId));
+      // speciesId is filled in by resolveSpeciesIds
+      out.add(new Entry(num, displayName, toApiName(displayName), 0));
     }
 
     // Ensure sorted by regional number
@@ -144,24 +156,81 @@ class BuildLzaDex {
     return s;
   }
 
-  private static int fetchSpeciesId(HttpClient client, String apiName) throws Exception {
+  // National ids come from dex_json/national.json, then the cache file, and
+  // only names found in neither are looked up on PokéAPI (BATCH at a time).
+  // New answers are added to the cache, so a re-run needs no network at all.
+  private static void resolveSpeciesIds(List<Entry> entries, HttpClient client) throws Exception {
+    SpeciesIndex national = SpeciesIndex.load(SpeciesIndex.NATIONAL_DEX);
+    Map<String, Integer> cache = loadIdCache();
+
+    Set<String> misses = new LinkedHashSet<>();
+    for (Entry e : entries) {
+      if (national.find(e.apiName) < 0 && !cache.containsKey(e.apiName)) misses.add(e.apiName);
+    }
+
+    if (!misses.isEmpty()) {
+      System.out.println("Looking up " + misses.size() + " species on PokéAPI");
+      List<String> failed = new ArrayList<>();
+      List<String> names = new ArrayList<>(misses);
+      for (int i = 0; i < names.size(); i += BATCH) {
+        List<String> batch = names.subList(i, Math.min(i + BATCH, names.size()));
+        List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        for (String apiName : batch) pending.add(fetchSpeciesId(client, apiName));
+        for (int j = 0; j < batch.size(); j++) {
+          try {
+            cache.put(batch.get(j), pending.get(j).join());
+          } catch (CompletionException ex) {
+            failed.add(ex.getCause().getMessage());
+          }
+        }
+      }
+      // Keep whatever did resolve, even if some lookups failed
+      saveIdCache(cache);
+      if (!failed.isEmpty()) throw new RuntimeException(String.join("\n", failed));
+    }
+
+    for (Entry e : entries) {
+      int id = national.find(e.apiName);
+      e.speciesId = id >= 0 ? id : cache.get(e.apiName);
+    }
+  }
+
+  private static CompletableFuture<Integer> fetchSpeciesId(HttpClient client, String apiName) {
     // Use pokemon-species endpoint; id == national dex number
     // https://pokeapi.co/api/v2/pokemon-species/{apiName}
-    String url = "https://pokeapi.co/api/v2/pokemon-species/" + apiName;
+    String url = API + "/pokemon-species/" + apiName;
     HttpRequest req = HttpRequest.newBuilder()
         .uri(URI.create(url))
         .timeout(Duration.ofSeconds(30))
         .GET()
         .build();
 
-    HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-    if (res.statusCode() != 200) {
-      throw new RuntimeException("Failed fetching species for '" + apiName + "' (" + res.statusCode() + "): " + url);
+    return client.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)).thenApply(res -> {
+      if (res.statusCode() != 200) {
+        throw new RuntimeException("Failed fetching species for '" + apiName + "' (" + res.statusCode() + "): " + url);
+      }
+      Matcher m = ID_FIELD.matcher(res.body());
+      if (!m.find()) throw new RuntimeException("Could not find id field in response for " + apiName);
+      return Integer.parseInt(m.group(1));
+    });
+  }
+
+  // apiName \t id per line
+  private static Map<String, Integer> loadIdCache() throws IOException {
+    Map<String, Integer> cache = new TreeMap<>();
+    if (!Files.exists(ID_CACHE)) return cache;
+    for (String line : Files.readAllLines(ID_CACHE, StandardCharsets.UTF_8)) {
+      int tab = line.indexOf('\t');
+      if (tab > 0) cache.put(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1).trim()));
     }
+    return cache;
+  }
 
-    Matcher m = ID_FIELD.matcher(res.body());
-    if (!m.find()) throw new RuntimeException("Could not find id field in response for " + apiName);
-    return Integer.parseInt(m.group(1));
+  private static void saveIdCache(Map<String, Integer> cache) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Integer> e : cache.entrySet()) sb.append(e.getKey()).append('\t').append(e.getValue()).append('\n');
+    Files.createDirectories(ID_CACHE.getParent());
+    Files.writeString(ID_CACHE, sb.toString(), StandardCharsets.UTF_8);
   }
 
   private static String escape(String s) {
@@ -0,0 +1,167 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of caught changes, replayed on top of the last snapshot.
+ *
+ * Each record is [int length][int crc32][payload] where the payload is
+ * [long seq][byte flags][name as UTF-8]. A record whose length or checksum
+ * doesn't add up marks a torn tail (crash mid-append) and is cut off on replay.
+ */
+class CaughtLog implements Closeable {
+
+    static final int NORMAL = 1;
+    static final int SHINY = 2;
+
+    private static final int HEADER = 8;                 // length + crc
+    static final int MAX_NAME_BYTES = 4096;
+    private static final int MAX_PAYLOAD = 9 + MAX_NAME_BYTES;     // seq + flags + name
+
+    interface Apply {
+        void apply(long seq, String name, boolean normal, boolean shiny);
+    }
+
+    private final Path file;
+    private FileChannel ch;
+
+    // Records waiting for the next flush(); guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    CaughtLog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Applies every intact record newer than afterSeq, truncates any torn
+     * tail and opens the log for appending. Returns the highest seq seen.
+     */
+    long replay(long afterSeq, Apply apply) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long maxSeq = afterSeq;
+        long good = 0;
+        int applied = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch.position(0)), 64 * 1024));
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[MAX_PAYLOAD];
+        while (true) {
+            int len;
+            int sum;
+            try {
+                len = in.readInt();
+                sum = in.readInt();
+                if (len < 9 || len > MAX_PAYLOAD) break;
+                in.readFully(payload, 0, len);
+            } catch (EOFException ex) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload, 0, len);
+            if ((int) crc.getValue() != sum) break;
+
+            ByteBuffer b = ByteBuffer.wrap(payload, 0, len);
+            long seq = b.getLong();
+            int flags = b.get();
+            String name = new String(payload, 9, len - 9, StandardCharsets.UTF_8);
+            if (seq > afterSeq) {
+                apply.apply(seq, name, (flags & NORMAL) != 0, (flags & SHINY) != 0);
+                applied++;
+            }
+            maxSeq = Math.max(maxSeq, seq);
+            good += HEADER + len;
+        }
+
+        if (good < ch.size()) {
+            System.out.println("Dropped torn tail of " + file + " (" + (ch.size() - good) + " bytes)");
+            ch.truncate(good);
+            ch.force(true);
+        }
+        ch.position(good);
+        if (applied > 0) System.out.println("Replayed " + applied + " change(s) from " + file);
+        return maxSeq;
+    }
+
+    /** Whether a record for name fits; append() throws for one that doesn't. */
+    static boolean fits(String name) {
+        return name.length() <= MAX_NAME_BYTES / 3 || name.getBytes(StandardCharsets.UTF_8).length <= MAX_NAME_BYTES;
+    }
+
+    /** Queues a record; it reaches the file on the next flush(). */
+    synchronized void append(long seq, String name, boolean normal, boolean shiny) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int len = 9 + nameBytes.length;
+        if (len > MAX_PAYLOAD) throw new IllegalArgumentException("Name too long: " + name.length() + " chars");
+
+        ByteBuffer b = ByteBuffer.allocate(HEADER + len);
+        b.putInt(len).putInt(0).putLong(seq)
+            .put((byte) ((normal ? NORMAL : 0) | (shiny ? SHINY : 0)))
+            .put(nameBytes);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), HEADER, len);
+        b.putInt(4, (int) crc.getValue());
+        pending.write(b.array(), 0, b.capacity());
+    }
+
+    /**
+     * Writes queued records and fsyncs. Callers must not flush concurrently.
+     * If the write or fsync fails, the file is cut back to where this batch
+     * started and the batch goes back in front of the queue, so the next
+     * flush writes it again instead of leaving a torn record mid-file.
+     */
+    void flush() throws IOException {
+        byte[] batch;
+        synchronized (this) {
+            if (pending.size() == 0) return;
+            batch = pending.toByteArray();
+            pending = new ByteArrayOutputStream();
+        }
+        long start = -1;
+        try {
+            start = ch.position();
+            ByteBuffer buf = ByteBuffer.wrap(batch);
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+        } catch (IOException | RuntimeException ex) {
+            synchronized (this) {
+                ByteArrayOutputStream requeued = new ByteArrayOutputStream(batch.length + pending.size());
+                requeued.write(batch, 0, batch.length);
+                pending.writeTo(requeued);
+                pending = requeued;
+            }
+            try {
+                if (start >= 0) {
+                    ch.truncate(start);
+                    ch.position(start);
+                }
+            } catch (IOException | RuntimeException undo) {
+                ex.addSuppressed(undo);
+            }
+            throw ex;
+        }
+    }
+
+    long size() throws IOException {
+        return ch.size();
+    }
+
+    /** Empties the log once a snapshot covers everything written so far. */
+    void truncate() throws IOException {
+        ch.truncate(0);
+        ch.position(0);
+        ch.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ch != null) ch.close();
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Normal/shiny flags for one game or profile, packed as two bitsets indexed
+ * by national species id (see SpeciesIndex). Around 1000 species fit in a
+ * few hundred bytes, and counts are a popcount over the words.
+ *
+ * All methods are synchronized. Readers that do slow work (serializing to a
+ * socket, say) should take a copy() first; it's just two small arrays.
+ */
+class CaughtSet {
+
+    interface Visitor {
+        void visit(int id, boolean normal, boolean shiny) throws IOException;
+    }
+
+    private long[] normal;
+    private long[] shiny;
+
+    CaughtSet() {
+        this(new long[0], new long[0]);
+    }
+
+    private CaughtSet(long[] normal, long[] shiny) {
+        this.normal = normal;
+        this.shiny = shiny;
+    }
+
+    /** Set holding a copy of the given words. */
+    static CaughtSet of(long[] normal, long[] shiny) {
+        int len = Math.max(normal.length, shiny.length);
+        return new CaughtSet(Arrays.copyOf(normal, len), Arrays.copyOf(shiny, len));
+    }
+
+    synchronized void set(int id, boolean n, boolean s) {
+        int word = id >>> 6;
+        if (word >= normal.length) {
+            if (!n && !s) return;
+            grow(word + 1);
+        }
+        long bit = 1L << id;
+        normal[word] = n ? normal[word] | bit : normal[word] & ~bit;
+        shiny[word] = s ? shiny[word] | bit : shiny[word] & ~bit;
+    }
+
+    synchronized boolean isNormal(int id) {
+        int word = id >>> 6;
+        return word < normal.length && (normal[word] & (1L << id)) != 0;
+    }
+
+    synchronized boolean isShiny(int id) {
+        int word = id >>> 6;
+        return word < shiny.length && (shiny[word] & (1L << id)) != 0;
+    }
+
+    synchronized int normalCount() {
+        return popcount(normal);
+    }
+
+    synchronized int shinyCount() {
+        return popcount(shiny);
+    }
+
+    /** Number of species with either flag set. */
+    synchronized int size() {
+        int n = 0;
+        for (int i = 0; i < normal.length; i++) n += Long.bitCount(normal[i] | shiny[i]);
+        return n;
+    }
+
+    /** How many species in mask have the normal (or shiny) flag set. */
+    synchronized int countIn(long[] mask, boolean ofShiny) {
+        long[] bits = ofShiny ? shiny : normal;
+        int n = 0;
+        for (int i = 0, len = Math.min(bits.length, mask.length); i < len; i++) n += Long.bitCount(bits[i] & mask[i]);
+        return n;
+    }
+
+    synchronized void clear() {
+        normal = new long[0];
+        shiny = new long[0];
+    }
+
+    /** Copy of the normal (or shiny) words, for writing snapshots. */
+    synchronized long[] words(boolean ofShiny) {
+        return (ofShiny ? shiny : normal).clone();
+    }
+
+    /** Replaces this set's contents with other's. */
+    void replaceWith(CaughtSet other) {
+        CaughtSet c = other.copy();
+        synchronized (this) {
+            normal = c.normal;
+            shiny = c.shiny;
+        }
+    }
+
+    synchronized CaughtSet copy() {
+        return new CaughtSet(normal.clone(), shiny.clone());
+    }
+
+    /** Visits every species with either flag set, in id order. */
+    synchronized void forEach(Visitor v) throws IOException {
+        for (int w = 0; w < normal.length; w++) {
+            long bits = normal[w] | shiny[w];
+            while (bits != 0) {
+                int id = (w << 6) + Long.numberOfTrailingZeros(bits);
+                long bit = bits & -bits;
+                v.visit(id, (normal[w] & bit) != 0, (shiny[w] & bit) != 0);
+                bits ^= bit;
+            }
+        }
+    }
+
+    private void grow(int words) {
+        int len = Math.max(words, normal.length * 2);
+        normal = Arrays.copyOf(normal, len);
+        shiny = Arrays.copyOf(shiny, len);
+    }
+
+    private static int popcount(long[] words) {
+        int n = 0;
+        for (long w : words) n += Long.bitCount(w);
+        return n;
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.BitSet;
+
+/**
+ * Remembers which species changed at which seq for the last N changes, so
+ * clients holding an older version can be sent just the difference.
+ */
+class ChangeRing {
+
+    private final long[] seqs;
+    private final int[] ids;
+    private int next;      // slot the next change goes into
+    private int count;
+    private long floor;    // changes after this seq are all still in the ring
+
+    ChangeRing(int capacity, long startSeq) {
+        this.seqs = new long[capacity];
+        this.ids = new int[capacity];
+        this.floor = startSeq;
+    }
+
+    synchronized void add(long seq, int id) {
+        if (count == seqs.length) floor = seqs[next];   // evicting the oldest
+        else count++;
+        seqs[next] = seq;
+        ids[next] = id;
+        next = (next + 1) % seqs.length;
+    }
+
+    /**
+     * Species changed after since, or null when the ring no longer reaches
+     * back that far (or since is from the future, e.g. data was reset) and
+     * the caller should send everything.
+     */
+    synchronized BitSet since(long since, long current) {
+        if (since < floor || since > current) return null;
+        BitSet changed = new BitSet();
+        for (int i = 0, slot = next; i < count; i++) {
+            slot = (slot == 0 ? seqs.length : slot) - 1;   // newest first
+            if (seqs[slot] <= since) break;
+            changed.set(ids[slot]);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,336 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Every regional dex the tracker knows, parsed once at startup from the
+ * PokéAPI dumps in dex_json/ (plus the local Legends: Z-A sections) and
+ * served from GET /api/dex/<name> in the same shape as static/data/lza.json:
+ * [{"num":1,"apiName":"bulbasaur","name":"Bulbasaur","speciesId":1}, ...]
+ *
+ * "overall" is the union of every dex used by a game in the manifest,
+ * sorted by national id — what the Overall Dex tab shows.
+ *
+ * Entries are kept as parallel int arrays; names come from SpeciesIndex.
+ */
+class DexCatalog {
+
+    static final class Dex {
+        final String name;
+        final int[] nums;
+        final int[] speciesIds;
+        final int[] nameIds;          // SpeciesIndex id of each apiName
+        final String[] displayNames;  // null unless some differ from title(apiName)
+        final String etag;
+
+        Dex(String name, int[] nums, int[] speciesIds, int[] nameIds, String[] displayNames) {
+            this.name = name;
+            this.nums = nums;
+            this.speciesIds = speciesIds;
+            this.nameIds = nameIds;
+            this.displayNames = displayNames;
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < nums.length; i++) {
+                crc.update(nums[i]);
+                crc.update(speciesIds[i]);
+                crc.update(nameIds[i]);
+            }
+            this.etag = "\"dex-" + Long.toHexString(crc.getValue()) + "-" + nums.length + "\"";
+        }
+
+        int size() {
+            return nums.length;
+        }
+
+        String apiName(int i) {
+            return SpeciesIndex.shared().name(nameIds[i]);
+        }
+
+        String displayName(int i) {
+            return displayNames != null && displayNames[i] != null ? displayNames[i] : title(apiName(i));
+        }
+    }
+
+    private final Map<String, Dex> dexes;
+
+    private DexCatalog(Map<String, Dex> dexes) {
+        this.dexes = dexes;
+    }
+
+    static final String OVERALL = "overall";
+
+    /** Parses every dex_json/*.json in parallel, plus the sections of lza.json. */
+    static DexCatalog load(Path dexDir, Path lzaFile, GameManifest games) {
+        long start = System.nanoTime();
+        Map<String, Dex> dexes = new TreeMap<>();
+        if (Files.isDirectory(dexDir)) {
+            List<Path> files;
+            try (Stream<Path> s = Files.list(dexDir)) {
+                files = s.filter(p -> p.getFileName().toString().endsWith(".json")).collect(Collectors.toList());
+            } catch (IOException ex) {
+                System.out.println("Could not list " + dexDir + ": " + ex.getMessage());
+                files = List.of();
+            }
+            List<Dex> parsed = files.parallelStream().map(DexCatalog::parsePokedex)
+                .filter(Objects::nonNull).collect(Collectors.toList());
+            for (Dex d : parsed) dexes.put(d.name, d);
+        }
+        if (Files.exists(lzaFile)) {
+            try {
+                for (Dex d : parseLocal(lzaFile)) dexes.put(d.name, d);
+            } catch (IOException ex) {
+                System.out.println("Could not read " + lzaFile + ": " + ex.getMessage());
+            }
+        }
+        List<Dex> used = new ArrayList<>();
+        for (GameManifest.Game g : games.games) {
+            for (GameManifest.Section s : g.sections) {
+                Dex d = dexes.get(s.dex);
+                if (d != null) used.add(d);
+            }
+        }
+        dexes.put(OVERALL, union(OVERALL, used));
+        System.out.printf("Loaded %d dexes in %d ms%n", dexes.size(), (System.nanoTime() - start) / 1_000_000);
+        return new DexCatalog(Collections.unmodifiableMap(dexes));
+    }
+
+    Dex get(String name) {
+        return dexes.get(name);
+    }
+
+    Collection<Dex> all() {
+        return dexes.values();
+    }
+
+    /** apiNames of a dex, or null if there's no such dex. */
+    List<String> apiNames(String name) {
+        Dex d = dexes.get(name);
+        if (d == null) return null;
+        List<String> out = new ArrayList<>(d.size());
+        for (int i = 0; i < d.size(); i++) out.add(d.apiName(i));
+        return out;
+    }
+
+    /**
+     * Every species in parts once (first occurrence wins, keeping its name),
+     * ordered by national id, numbered by national id.
+     */
+    static Dex union(String name, List<Dex> parts) {
+        Map<Integer, int[]> seen = new LinkedHashMap<>();   // nameId -> {part, index}
+        for (int p = 0; p < parts.size(); p++) {
+            Dex d = parts.get(p);
+            for (int i = 0; i < d.size(); i++) seen.putIfAbsent(d.nameIds[i], new int[] {p, i});
+        }
+        int[][] refs = seen.values().toArray(new int[0][]);
+        Arrays.sort(refs, Comparator.comparingInt(r -> parts.get(r[0]).speciesIds[r[1]]));
+
+        int n = refs.length;
+        int[] ids = new int[n];
+        int[] nameIds = new int[n];
+        String[] display = new String[n];
+        boolean custom = false;
+        for (int k = 0; k < n; k++) {
+            Dex d = parts.get(refs[k][0]);
+            int i = refs[k][1];
+            ids[k] = d.speciesIds[i];
+            nameIds[k] = d.nameIds[i];
+            if (d.displayNames != null && d.displayNames[i] != null) {
+                display[k] = d.displayNames[i];
+                custom = true;
+            }
+        }
+        return new Dex(name, ids.clone(), ids, nameIds, custom ? display : null);
+    }
+
+    /* ================= HTTP ================= */
+
+    // GET /api/dex lists the dexes; GET /api/dex/<name> returns one
+    void handle(HttpExchange e) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+
+        String path = e.getRequestURI().getPath();
+        if (path.equals("/api/dex") || path.equals("/api/dex/")) {
+            Main.sendJson(e, 200, w -> {
+                w.beginArray();
+                for (Dex d : dexes.values()) {
+                    w.beginObject().name("name").value(d.name).name("size").value(d.size()).endObject();
+                }
+                w.endArray();
+            });
+            return;
+        }
+
+        Dex d = dexes.get(path.substring("/api/dex/".length()));
+        if (d == null) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+
+        // Only changes when dex_json does (i.e. on a redeploy), so let
+        // browsers keep it for a day and revalidate with the ETag after that
+        e.getResponseHeaders().set("ETag", d.etag);
+        e.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+        if (StaticAssets.notModified(e.getRequestHeaders(), d.etag, Long.MAX_VALUE)) {
+            e.sendResponseHeaders(304, -1);
+            e.close();
+            return;
+        }
+        Main.sendJson(e, 200, w -> write(w, d));
+    }
+
+    static void write(JsonWriter w, Dex d) throws IOException {
+        w.beginArray();
+        for (int i = 0; i < d.size(); i++) {
+            w.beginObject()
+                .name("num").value(d.nums[i])
+                .name("apiName").value(d.apiName(i))
+                .name("name").value(d.displayName(i))
+                .name("speciesId").value(d.speciesIds[i])
+                .endObject();
+        }
+        w.endArray();
+    }
+
+    /* ================= PARSING ================= */
+
+    private static Dex parsePokedex(Path file) {
+        String name = file.getFileName().toString().replaceFirst("\\.json$", "");
+        SpeciesIndex species = SpeciesIndex.shared();
+        IntList nums = new IntList();
+        IntList ids = new IntList();
+        IntList nameIds = new IntList();
+        try (InputStream in = Files.newInputStream(file)) {
+            JsonReader r = new JsonReader(in);
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!r.nextName().equals("pokemon_entries")) {
+                    r.skipValue();
+                    continue;
+                }
+                r.beginArray();
+                while (r.hasNext()) {
+                    DexEntry e = DexEntry.read(r);
+                    nums.add(e.num);
+                    ids.add(e.speciesId);
+                    nameIds.add(species.id(e.apiName));
+                }
+                r.endArray();
+            }
+            r.endObject();
+        } catch (IOException ex) {
+            System.out.println("Skipping " + file + ": " + ex.getMessage());
+            return null;
+        }
+        return new Dex(name, nums.toArray(), ids.toArray(), nameIds.toArray(), null);
+    }
+
+    // {"sections":[{"id":"kalos-base","pokemon":[{"num":1,"name":..,"apiName":..,"speciesId":..}]}]}
+    private static List<Dex> parseLocal(Path file) throws IOException {
+        SpeciesIndex species = SpeciesIndex.shared();
+        List<Dex> out = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file)) {
+            JsonReader r = new JsonReader(in);
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!r.nextName().equals("sections")) {
+                    r.skipValue();
+                    continue;
+                }
+                r.beginArray();
+                while (r.hasNext()) {
+                    String id = null;
+                    IntList nums = new IntList();
+                    IntList ids = new IntList();
+                    IntList nameIds = new IntList();
+                    List<String> display = new ArrayList<>();
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        switch (r.nextName()) {
+                            case "id":
+                                id = r.nextString();
+                                break;
+                            case "pokemon":
+                                r.beginArray();
+                                while (r.hasNext()) {
+                                    int num = 0;
+                                    int sid = 0;
+                                    String api = null;
+                                    String shown = null;
+                                    r.beginObject();
+                                    while (r.hasNext()) {
+                                        switch (r.nextName()) {
+                                            case "num": num = r.nextInt(); break;
+                                            case "speciesId": sid = r.nextInt(); break;
+                                            case "apiName": api = r.nextString(); break;
+                                            case "name": shown = r.nextString(); break;
+                                            default: r.skipValue();
+                                        }
+                                    }
+                                    r.endObject();
+                                    if (api == null) continue;
+                                    nums.add(num);
+                                    ids.add(sid);
+                                    nameIds.add(species.id(api));
+                                    display.add(shown != null && !shown.equals(title(api)) ? shown : null);
+                                }
+                                r.endArray();
+                                break;
+                            default:
+                                r.skipValue();
+                        }
+                    }
+                    r.endObject();
+                    if (id == null) continue;
+                    boolean custom = display.stream().anyMatch(Objects::nonNull);
+                    out.add(new Dex(id, nums.toArray(), ids.toArray(), nameIds.toArray(),
+                        custom ? display.toArray(new String[0]) : null));
+                }
+                r.endArray();
+            }
+            r.endObject();
+        }
+        return out;
+    }
+
+    // "mr-mime" -> "Mr Mime", same as title() in app.js
+    static String title(String apiName) {
+        StringBuilder sb = new StringBuilder(apiName.length());
+        for (String part : apiName.split("-")) {
+            if (part.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(Character.toUpperCase(part.charAt(0))).append(part, 1, part.length());
+        }
+        return sb.toString();
+    }
+
+    /** Growable int array, to avoid boxing while parsing. */
+    static final class IntList {
+        private int[] a = new int[256];
+        private int n;
+
+        void add(int v) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
+        }
+
+        int size() {
+            return n;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(a, n);
+        }
+    }
+}
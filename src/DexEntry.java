@@ -0,0 +1,46 @@
+import java.io.IOException;
+
+/**
+ * One element of a PokéAPI pokedex "pokemon_entries" array:
+ * {"entry_number":25,"pokemon_species":{"name":"pikachu","url":".../pokemon-species/25/"}}
+ */
+class DexEntry {
+    int num;
+    String apiName;
+    int speciesId;
+
+    static DexEntry read(JsonReader r) throws IOException {
+        DexEntry e = new DexEntry();
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "entry_number":
+                    e.num = r.nextInt();
+                    break;
+                case "pokemon_species":
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        switch (r.nextName()) {
+                            case "name": e.apiName = r.nextString(); break;
+                            case "url": e.speciesId = idFromUrl(r.nextString()); break;
+                            default: r.skipValue();
+                        }
+                    }
+                    r.endObject();
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        r.endObject();
+        return e;
+    }
+
+    // ".../pokemon-species/25/" -> 25, or 0 if there's no trailing number
+    static int idFromUrl(String url) {
+        int end = url.endsWith("/") ? url.length() - 1 : url.length();
+        int start = end;
+        while (start > 0 && Character.isDigit(url.charAt(start - 1))) start--;
+        return start == end ? 0 : Integer.parseInt(url.substring(start, end));
+    }
+}
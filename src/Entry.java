@@ -1,19 +1,54 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class Entry {
   public boolean normal;
   public boolean shiny;
 
+  static Entry of(boolean normal, boolean shiny) {
+    Entry e = new Entry();
+    e.normal = normal;
+    e.shiny = shiny;
+    return e;
+  }
+
   public static Entry fromJson(String json) {
-    boolean n = json.contains("\"normal\":true");
-    boolean s = json.contains("\"shiny\":true");
-    if (s) n = true;
-    if (!n) s = false;
+    Entry e;
+    try {
+      e = read(new JsonReader(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))));
+    } catch (IOException ex) {
+      throw new IllegalArgumentException(ex.getMessage(), ex);
+    }
+    if (e.shiny) e.normal = true;
+    if (!e.normal) e.shiny = false;
+    return e;
+  }
+
+  // {"normal":true,"shiny":false}; missing or unknown fields are ignored
+  static Entry read(JsonReader r) throws IOException {
     Entry e = new Entry();
-    e.normal = n;
-    e.shiny = s;
+    r.beginObject();
+    while (r.hasNext()) {
+      switch (r.nextName()) {
+        case "normal": e.normal = r.nextBoolean(); break;
+        case "shiny": e.shiny = r.nextBoolean(); break;
+        default: r.skipValue();
+      }
+    }
+    r.endObject();
     return e;
   }
 
+  static void write(JsonWriter w, boolean normal, boolean shiny) throws IOException {
+    w.beginObject().name("normal").value(normal).name("shiny").value(shiny).endObject();
+  }
+
+  void write(JsonWriter w) throws IOException {
+    write(w, normal, shiny);
+  }
+
   public String toJson() {
-    return "{\"normal\":" + normal + ",\"shiny\":" + shiny + "}";
+    return JsonWriter.toString(this::write);
   }
 }
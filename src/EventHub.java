@@ -0,0 +1,117 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-Sent Events fan-out for GET /api/events.
+ *
+ * publish() never blocks: each subscriber has its own bounded queue, and a
+ * subscriber whose queue is full (a stalled or very slow client) is dropped.
+ * Its EventSource reconnects and catches up through /api/state?since=.
+ *
+ * Streams run on their own threads (STREAMS), not the request executor: a
+ * stream lives as long as the tab, and with EXECUTOR=platform enough of them
+ * would hold every pool thread, until the dispatcher ran the next one itself
+ * and the whole server stopped. At most MAX_STREAMS are open across all
+ * profiles; past that a client gets 503 and its EventSource retries.
+ */
+class EventHub {
+
+    private static final String EVICTED = "";
+    private static final long HEARTBEAT_SECONDS = 15;
+
+    static final int MAX_STREAMS = Integer.parseInt(System.getenv().getOrDefault("MAX_EVENT_STREAMS", "1024"));
+    private static final AtomicInteger OPEN = new AtomicInteger();
+    private static final ExecutorService STREAMS = RequestExecutors.perTask("events");
+
+    private final Set<ArrayBlockingQueue<String>> subscribers = ConcurrentHashMap.newKeySet();
+    private final int queueSize;
+
+    EventHub(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    int subscribers() {
+        return subscribers.size();
+    }
+
+    void publish(String event, String data) {
+        publish(event, -1, data);
+    }
+
+    void publish(String event, long id, String data) {
+        if (subscribers.isEmpty()) return;
+        String frame = (id >= 0 ? "id: " + id + "\n" : "") + "event: " + event + "\ndata: " + data + "\n\n";
+        for (ArrayBlockingQueue<String> q : subscribers) {
+            if (!q.offer(frame)) evict(q);
+        }
+    }
+
+    private void evict(ArrayBlockingQueue<String> q) {
+        if (!subscribers.remove(q)) return;
+        q.clear();
+        q.offer(EVICTED);
+    }
+
+    /**
+     * Starts streaming events to one client, until it disconnects or falls
+     * behind, on a STREAMS thread; returns without waiting for it.
+     */
+    void handle(HttpExchange e) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+        if (OPEN.incrementAndGet() > MAX_STREAMS) {
+            OPEN.decrementAndGet();
+            e.getResponseHeaders().set("Retry-After", "30");
+            e.sendResponseHeaders(503, -1);
+            e.close();
+            return;
+        }
+        try {
+            STREAMS.execute(() -> stream(e));
+        } catch (RuntimeException ex) {
+            OPEN.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    private void stream(HttpExchange e) {
+        ArrayBlockingQueue<String> q = new ArrayBlockingQueue<>(queueSize);
+        subscribers.add(q);
+        try {
+            e.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            e.getResponseHeaders().set("Cache-Control", "no-cache");
+            e.sendResponseHeaders(200, 0);
+            OutputStream out = e.getResponseBody();
+            out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            while (true) {
+                String frame = q.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                if (frame == EVICTED) break;
+                // Heartbeats keep proxies from timing out idle streams and
+                // surface dead connections as write errors
+                out.write((frame == null ? ": ping\n\n" : frame).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            // client went away
+        } finally {
+            subscribers.remove(q);
+            OPEN.decrementAndGet();
+            e.close();
+        }
+    }
+}
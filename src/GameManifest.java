@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The games and their dex sections, from static/data/games.json. The page
+ * loads the same file for its tabs (adding the computed Overall tab); each
+ * section's "dex" is a DexCatalog name.
+ */
+class GameManifest {
+
+    static final Path FILE = Path.of("static/data/games.json");
+
+    static final class Section {
+        final String id;
+        final String name;
+        final String dex;
+
+        Section(String id, String name, String dex) {
+            this.id = id;
+            this.name = name;
+            this.dex = dex;
+        }
+    }
+
+    static final class Game {
+        final String id;
+        final String name;
+        final List<Section> sections;
+
+        Game(String id, String name, List<Section> sections) {
+            this.id = id;
+            this.name = name;
+            this.sections = sections;
+        }
+    }
+
+    final List<Game> games;
+
+    private GameManifest(List<Game> games) {
+        this.games = games;
+    }
+
+    /** Empty manifest if the file is missing or unreadable. */
+    static GameManifest load(Path file) {
+        if (!Files.exists(file)) return new GameManifest(List.of());
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(new JsonReader(in));
+        } catch (IOException ex) {
+            System.out.println("Could not read " + file + ": " + ex.getMessage());
+            return new GameManifest(List.of());
+        }
+    }
+
+    Game game(String id) {
+        for (Game g : games) {
+            if (g.id.equals(id)) return g;
+        }
+        return null;
+    }
+
+    static GameManifest read(JsonReader r) throws IOException {
+        List<Game> games = new ArrayList<>();
+        r.beginObject();
+        while (r.hasNext()) {
+            if (!r.nextName().equals("games")) {
+                r.skipValue();
+                continue;
+            }
+            r.beginArray();
+            while (r.hasNext()) {
+                String id = null;
+                String name = null;
+                List<Section> sections = new ArrayList<>();
+                r.beginObject();
+                while (r.hasNext()) {
+                    switch (r.nextName()) {
+                        case "id": id = r.nextString(); break;
+                        case "name": name = r.nextString(); break;
+                        case "sections":
+                            r.beginArray();
+                            while (r.hasNext()) sections.add(readSection(r));
+                            r.endArray();
+                            break;
+                        default: r.skipValue();
+                    }
+                }
+                r.endObject();
+                games.add(new Game(id, name, List.copyOf(sections)));
+            }
+            r.endArray();
+        }
+        r.endObject();
+        return new GameManifest(List.copyOf(games));
+    }
+
+    private static Section readSection(JsonReader r) throws IOException {
+        String id = null;
+        String name = null;
+        String dex = null;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "id": id = r.nextString(); break;
+                case "name": name = r.nextString(); break;
+                case "dex": dex = r.nextStringOrNull(); break;
+                default: r.skipValue();
+            }
+        }
+        r.endObject();
+        return new Section(id, name, dex != null ? dex : id);
+    }
+}
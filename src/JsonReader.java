@@ -0,0 +1,332 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Small pull parser for UTF-8 JSON, read straight from an InputStream or a
+ * ByteBuffer through one fixed buffer. Usage mirrors the structure:
+ *
+ *   r.beginObject();
+ *   while (r.hasNext()) {
+ *     switch (r.nextName()) {
+ *       case "normal": normal = r.nextBoolean(); break;
+ *       default: r.skipValue();
+ *     }
+ *   }
+ *   r.endObject();
+ */
+class JsonReader {
+
+    enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END }
+
+    private static final int EMPTY_DOC = 0, DOC = 1, EMPTY_ARRAY = 2, ARRAY = 3,
+        EMPTY_OBJECT = 4, OBJECT = 5, NAME_READ = 6;
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[16];
+    private int depth = 1;
+    private Token peeked;
+
+    // Reused for every string so short names don't allocate beyond the String itself
+    private char[] chars = new char[64];
+
+    JsonReader(InputStream in) {
+        this.in = in;
+        this.buf = new byte[8192];
+        stack[0] = EMPTY_DOC;
+    }
+
+    JsonReader(ByteBuffer bytes) {
+        this.in = null;
+        if (bytes.hasArray()) {
+            buf = bytes.array();
+            pos = bytes.arrayOffset() + bytes.position();
+            limit = bytes.arrayOffset() + bytes.limit();
+        } else {
+            buf = new byte[bytes.remaining()];
+            bytes.duplicate().get(buf);
+            limit = buf.length;
+        }
+        stack[0] = EMPTY_DOC;
+    }
+
+    Token peek() throws IOException {
+        if (peeked != null) return peeked;
+
+        int scope = stack[depth - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+            case ARRAY:
+                stack[depth - 1] = ARRAY;
+                c = nextNonSpace();
+                if (c == ']') return peeked = Token.END_ARRAY;
+                if (scope == ARRAY) {
+                    if (c != ',') throw syntax("Expected ',' or ']'");
+                } else if (c != -1) {
+                    pos--;
+                }
+                break;
+            case EMPTY_OBJECT:
+            case OBJECT:
+                stack[depth - 1] = NAME_READ;
+                c = nextNonSpace();
+                if (c == '}') return peeked = Token.END_OBJECT;
+                if (scope == OBJECT) {
+                    if (c != ',') throw syntax("Expected ',' or '}'");
+                    c = nextNonSpace();
+                }
+                if (c != '"') throw syntax("Expected a name");
+                return peeked = Token.NAME;
+            case NAME_READ:
+                stack[depth - 1] = OBJECT;
+                if (nextNonSpace() != ':') throw syntax("Expected ':'");
+                break;
+            case EMPTY_DOC:
+                stack[depth - 1] = DOC;
+                break;
+            default:
+                if (nextNonSpace() == -1) return peeked = Token.END;
+                throw syntax("Trailing data after document");
+        }
+
+        c = nextNonSpace();
+        switch (c) {
+            case '{': return peeked = Token.BEGIN_OBJECT;
+            case '[': return peeked = Token.BEGIN_ARRAY;
+            case '"': return peeked = Token.STRING;
+            case 't':
+            case 'f': pos--; return peeked = Token.BOOLEAN;
+            case 'n': pos--; return peeked = Token.NULL;
+            case -1: throw syntax("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    pos--;
+                    return peeked = Token.NUMBER;
+                }
+                throw syntax("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    String nextString() throws IOException {
+        expect(Token.STRING);
+        return readString();
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        if (read() == 't') {
+            require("rue");
+            return true;
+        }
+        require("alse");
+        return false;
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+        read();
+        require("ull");
+    }
+
+    long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        boolean neg = false;
+        long v = 0;
+        int c = read();
+        if (c == '-') {
+            neg = true;
+            c = read();
+        }
+        if (c < '0' || c > '9') throw syntax("Expected a digit");
+        while (c >= '0' && c <= '9') {
+            v = v * 10 + (c - '0');
+            c = read();
+        }
+        if (c == '.' || c == 'e' || c == 'E') throw syntax("Expected an integer");
+        if (c != -1) pos--;
+        return neg ? -v : v;
+    }
+
+    int nextInt() throws IOException {
+        return Math.toIntExact(nextLong());
+    }
+
+    /** Reads a string or null; returns null for null. */
+    String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    void skipValue() throws IOException {
+        int nested = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT: beginObject(); nested++; break;
+                case BEGIN_ARRAY: beginArray(); nested++; break;
+                case END_OBJECT: endObject(); nested--; break;
+                case END_ARRAY: endArray(); nested--; break;
+                case NAME: nextName(); break;
+                case STRING: nextString(); break;
+                case BOOLEAN: nextBoolean(); break;
+                case NULL: nextNull(); break;
+                case NUMBER: skipNumber(); break;
+                default: throw syntax("Unexpected end of input");
+            }
+        } while (nested > 0);
+    }
+
+    /* ================= INTERNALS ================= */
+
+    private void expect(Token t) throws IOException {
+        Token got = peek();
+        if (got != t) throw syntax("Expected " + t + " but was " + got);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = scope;
+    }
+
+    private void skipNumber() throws IOException {
+        expect(Token.NUMBER);
+        int c;
+        do {
+            c = read();
+        } while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9'));
+        if (c != -1) pos--;
+    }
+
+    private void require(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) throw syntax("Bad literal");
+        }
+    }
+
+    // Smallest code point that needs 1 + i bytes
+    private static final int[] MIN_CODE_POINT = {0, 0x80, 0x800, 0x10000};
+
+    // Opening quote already consumed
+    private String readString() throws IOException {
+        int n = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) throw syntax("Unterminated string");
+            if (c == '"') break;
+            if (n + 2 > chars.length) chars = Arrays.copyOf(chars, chars.length * 2);
+
+            if (c == '\\') {
+                int e = read();
+                switch (e) {
+                    case '"': case '\\': case '/': chars[n++] = (char) e; break;
+                    case 'b': chars[n++] = '\b'; break;
+                    case 'f': chars[n++] = '\f'; break;
+                    case 'n': chars[n++] = '\n'; break;
+                    case 'r': chars[n++] = '\r'; break;
+                    case 't': chars[n++] = '\t'; break;
+                    case 'u': chars[n++] = (char) hex4(); break;
+                    default: throw syntax("Bad escape");
+                }
+            } else if (c < 0x80) {
+                chars[n++] = (char) c;
+            } else {
+                int cp;
+                int more;
+                if ((c & 0xE0) == 0xC0) { cp = c & 0x1F; more = 1; }
+                else if ((c & 0xF0) == 0xE0) { cp = c & 0x0F; more = 2; }
+                else if ((c & 0xF8) == 0xF0) { cp = c & 0x07; more = 3; }
+                else throw syntax("Bad UTF-8");
+                for (int i = 0; i < more; i++) {
+                    int b = read();
+                    if ((b & 0xC0) != 0x80) throw syntax("Bad UTF-8");
+                    cp = (cp << 6) | (b & 0x3F);
+                }
+                // Overlong forms, UTF-16 surrogates and anything past U+10FFFF
+                // aren't characters; toChars would throw on some of them
+                if (cp < MIN_CODE_POINT[more] || cp > Character.MAX_CODE_POINT
+                        || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)) {
+                    throw syntax("Bad UTF-8");
+                }
+                n += Character.toChars(cp, chars, n);
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private int hex4() throws IOException {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = read();
+            int d = Character.digit(c, 16);
+            if (c == -1 || d < 0) throw syntax("Bad \\u escape");
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    private int nextNonSpace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    // Callers un-read one byte with pos--, but never after -1
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (in == null) return false;
+        int r = in.read(buf, 0, buf.length);
+        if (r <= 0) return false;
+        pos = 0;
+        limit = r;
+        return true;
+    }
+
+    private IOException syntax(String msg) {
+        return new IOException("Malformed JSON: " + msg);
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writes JSON as UTF-8 straight to an OutputStream through one fixed buffer,
+ * with commas handled for you and strings escaped per RFC 8259.
+ *
+ *   w.beginObject().name("normal").value(true).endObject();
+ */
+class JsonWriter implements Flushable, Closeable {
+
+    // Spare buffers for response writers, so streaming a response doesn't
+    // allocate a fresh 8 KB array every time
+    private static final int POOLED_SIZE = 8192;
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(64);
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private final boolean pooled;
+    private int n;
+
+    // One bit per nesting level: has the current container had a value yet?
+    private long[] started = new long[1];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    JsonWriter(OutputStream out, int bufferSize) {
+        this(out, new byte[bufferSize], false);
+    }
+
+    private JsonWriter(OutputStream out, byte[] buf, boolean pooled) {
+        this.out = out;
+        this.buf = buf;
+        this.pooled = pooled;
+    }
+
+    /** Writer with a buffer borrowed from a shared pool; close() hands it back. */
+    static JsonWriter pooled(OutputStream out) {
+        byte[] b = POOL.poll();
+        return new JsonWriter(out, b != null ? b : new byte[POOLED_SIZE], true);
+    }
+
+    /** Runs body against an in-memory writer and returns the result. */
+    static String toString(Body body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JsonWriter w = new JsonWriter(bytes, 1024)) {
+            body.write(w);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // in-memory, can't happen
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    interface Body {
+        void write(JsonWriter w) throws IOException;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push();
+        return raw('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        depth--;
+        return raw('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push();
+        return raw('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        depth--;
+        return raw(']');
+    }
+
+    JsonWriter name(String name) throws IOException {
+        beforeValue();
+        string(name);
+        raw(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String s) throws IOException {
+        if (s == null) return nullValue();
+        beforeValue();
+        string(s);
+        return this;
+    }
+
+    JsonWriter value(boolean b) throws IOException {
+        beforeValue();
+        return ascii(b ? "true" : "false");
+    }
+
+    JsonWriter value(long v) throws IOException {
+        beforeValue();
+        if (v < 0) {
+            if (v == Long.MIN_VALUE) return ascii(Long.toString(v));
+            raw('-');
+            v = -v;
+        }
+        // Digits right-to-left into the buffer, no temporary String
+        int len = 1;
+        for (long t = v; t >= 10; t /= 10) len++;
+        ensure(len);
+        for (int i = n + len - 1; i >= n; i--) {
+            buf[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        n += len;
+        return this;
+    }
+
+    // JSON has no NaN or Infinity; those come out as null
+    JsonWriter value(double v) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return nullValue();
+        beforeValue();
+        return ascii(Double.toString(v));
+    }
+
+    JsonWriter nullValue() throws IOException {
+        beforeValue();
+        return ascii("null");
+    }
+
+    /** Writes an already-encoded JSON value as-is. */
+    JsonWriter rawValue(byte[] json) throws IOException {
+        beforeValue();
+        flush();
+        out.write(json);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (n > 0) {
+            out.write(buf, 0, n);
+            n = 0;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            out.close();
+        } finally {
+            if (pooled) POOL.offer(buf);
+        }
+    }
+
+    /* ================= INTERNALS ================= */
+
+    private void push() {
+        depth++;
+        if ((depth >> 6) >= started.length) started = Arrays.copyOf(started, started.length * 2);
+        started[depth >> 6] &= ~(1L << depth);
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) return;
+        long bit = 1L << depth;
+        if ((started[depth >> 6] & bit) != 0) raw(',');
+        else started[depth >> 6] |= bit;
+    }
+
+    private void string(String s) throws IOException {
+        raw('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if (n == buf.length) drain();
+                buf[n++] = (byte) c;
+            } else if (c < 0x80) {
+                escape(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[n++] = (byte) (0xC0 | (c >> 6));
+                buf[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buf[n++] = (byte) (0xF0 | (cp >> 18));
+                buf[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                ascii("\\u").ascii(String.format("%04x", (int) c)); // lone surrogate, keep it lossless
+            } else {
+                ensure(3);
+                buf[n++] = (byte) (0xE0 | (c >> 12));
+                buf[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        raw('"');
+    }
+
+    private void escape(char c) throws IOException {
+        switch (c) {
+            case '"': ascii("\\\""); break;
+            case '\\': ascii("\\\\"); break;
+            case '\n': ascii("\\n"); break;
+            case '\r': ascii("\\r"); break;
+            case '\t': ascii("\\t"); break;
+            case '\b': ascii("\\b"); break;
+            case '\f': ascii("\\f"); break;
+            default: ascii(String.format("\\u%04x", (int) c));
+        }
+    }
+
+    private JsonWriter raw(char c) throws IOException {
+        if (n == buf.length) drain();
+        buf[n++] = (byte) c;
+        return this;
+    }
+
+    private JsonWriter ascii(String s) throws IOException {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) buf[n++] = (byte) s.charAt(i);
+        return this;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (n + bytes > buf.length) drain();
+    }
+
+    private void drain() throws IOException {
+        out.write(buf, 0, n);
+        n = 0;
+    }
+}
@@ -1,274 +1,542 @@
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 public class Main {
 
-    // In-memory cache (fast)
-    static Map<String, Map<String, Boolean>> caught = new HashMap<>();
+    // Doubles as the state version clients sync against (ETag, ?since=).
+    // BOOT_ID goes into the ETag and ?since= so a wiped data dir or a log
+    // rolled back after a crash can't reuse old versions.
+    static final String BOOT_ID = Long.toString(System.currentTimeMillis(), 36);
 
-    // File persistence (survives Ctrl+C + restart)
-    static final File SAVE_FILE = new File("data/caught.json");
+    // Every regional dex, parsed from dex_json/ at startup (GET /api/dex/<name>)
+    static final GameManifest GAMES = GameManifest.load(GameManifest.FILE);
+    static final DexCatalog DEX = DexCatalog.load(Path.of("dex_json"), Path.of("static/data/lza.json"), GAMES);
+
+    // GET /api/search: name / game / caught filters as bitset intersections
+    static final SearchIndex SEARCH = new SearchIndex(GAMES, DEX);
+
+    // Progress per person. The unprefixed /api/... routes are the "default"
+    // profile in data/; /api/profiles/<id>/... are the others, loaded on first use.
+    static final Path PROFILES_DIR = Path.of("data/profiles");
+    static final int MAX_PROFILES = Integer.parseInt(System.getenv().getOrDefault("MAX_PROFILES", "64"));
+    static final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+    static Profile defaultProfile;
 
     public static void main(String[] args) throws Exception {
         // Load saved state on boot
-        loadCaughtFromDisk();
+        defaultProfile = Profile.open(Profile.DEFAULT, Path.of("data"), GAMES, DEX);
+        profiles.put(Profile.DEFAULT, defaultProfile);
 
         int port = Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
-        HttpServer server = HttpServer.create(new InetSocketAddress("0.0.0.0", port), 0);
-
-        server.createContext("/", e -> serveFile(e, "static/index.html"));
-        server.createContext("/static", e -> serveDir(e, "static"));
-
-        server.createContext("/api/state", Main::handleState);
-        server.createContext("/api/pokemon", Main::handlePokemon);
+        HttpServer server = createServer(new InetSocketAddress("0.0.0.0", port));
+
+        route(server, "/", e -> serveFile(e, "static/index.html"));
+        route(server, "/static", e -> serveDir(e, "static"));
+        route(server, "/dex_json", e -> DEX_FILES.serve(e, subPath(e, "/dex_json", DEX_FILES)));
+
+        route(server, "/api/state", e -> handleState(e, defaultProfile));
+        route(server, "/api/pokemon", e -> handlePokemon(e, defaultProfile, e.getRequestURI().getPath().substring("/api/pokemon".length())));
+        route(server, "/api/events", e -> defaultProfile.events.handle(e));
+        route(server, "/api/progress", e -> handleProgress(e, defaultProfile));
+        route(server, "/api/export", e -> handleExport(e, defaultProfile));
+        route(server, "/api/view", e -> handleView(e, defaultProfile));
+        route(server, "/api/games", e -> handleGames(e, defaultProfile, e.getRequestURI().getPath().substring("/api/games".length())));
+        route(server, "/api/profiles", Main::handleProfiles);
+        route(server, "/api/dex", DEX::handle);
+        route(server, "/api/metrics", Metrics::handle);
+        route(server, "/api/sprite", SPRITES::handle);
+        route(server, "/api/atlas", ATLAS::handle);
+        route(server, "/api/search", e -> SEARCH.handle(e, defaultProfile));
+
+        Metrics.gauge("pokedex_profiles_loaded", profiles::size);
+        Metrics.gauge("pokedex_sse_subscribers", () -> profiles.values().stream().mapToLong(p -> p.events.subscribers()).sum());
+        Metrics.gauge("pokedex_sprite_cache_bytes", SPRITES::bytes);
+        Metrics.gauge("pokedex_sprite_cache_entries", SPRITES::size);
+        Metrics.gauge("pokedex_sprite_memory_hits", SPRITES.memoryHits::sum);
+        Metrics.gauge("pokedex_sprite_disk_hits", SPRITES.diskHits::sum);
+        Metrics.gauge("pokedex_sprite_fetches", SPRITES.fetches::sum);
+        Metrics.gauge("pokedex_sprite_fetch_failures", SPRITES.failures::sum);
+
+        // Without an executor every request runs on the single dispatcher thread
+        ExecutorService executor = RequestExecutors.fromEnv();
+        server.setExecutor(executor);
 
         server.start();
-        System.out.println("Server running on port " + port);
+        System.out.println("Server running on port " + port + " (" + RequestExecutors.describe(executor)
+            + ", " + defaultProfile.persistence.durability().name().toLowerCase() + " saves)");
 
         // Save one last time on shutdown (Ctrl+C triggers this)
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            try {
-                saveCaughtToDisk();
-                System.out.println("Saved state to " + SAVE_FILE.getPath());
-            } catch (Exception ex) {
-                System.out.println("Failed to save on shutdown: " + ex.getMessage());
+            for (Profile p : profiles.values()) {
+                try {
+                    p.close();
+                    System.out.println("Saved state to " + p.saveFile());
+                } catch (Exception ex) {
+                    System.out.println("Failed to save " + p.id + " on shutdown: " + ex.getMessage());
+                }
             }
         }));
     }
 
+    static HttpServer createServer(InetSocketAddress address) throws IOException {
+        // Nagle is on by default, so the last chunk of a streamed response on a
+        // kept-alive connection waits ~40 ms for the client's delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        return HttpServer.create(address, 0);
+    }
+
+    // Every context goes through Metrics so /api/metrics sees it
+    static void route(HttpServer server, String path, HttpHandler h) {
+        server.createContext(path, Metrics.wrap(path, h));
+    }
+
     /* ================= API ================= */
 
-    static void handleState(HttpExchange e) throws IOException {
-        if (!e.getRequestMethod().equals("GET")) {
-            e.sendResponseHeaders(405, -1);
-            e.close();
+    // Loaded profile, or null for a bad id or when MAX_PROFILES are already open
+    static Profile profile(String id) {
+        if (!Profile.VALID_ID.matcher(id).matches()) return null;
+        Profile p = profiles.get(id);
+        if (p != null || profiles.size() >= MAX_PROFILES) return p;
+        return profiles.computeIfAbsent(id, k -> Profile.open(k, PROFILES_DIR.resolve(k), GAMES, DEX));
+    }
+
+    /*
+     * GET /api/profiles lists the profiles; the rest mirror the default routes:
+     *   /api/profiles/<id>/state, /pokemon/<name>, /pokemon/_batch,
+     *   /events, /progress, /export, /view, /games/<game>/reset
+     */
+    static void handleProfiles(HttpExchange e) throws IOException {
+        String path = e.getRequestURI().getPath();
+        String rest = path.length() > "/api/profiles/".length() ? path.substring("/api/profiles/".length()) : "";
+        if (rest.isEmpty()) {
+            if (!e.getRequestMethod().equals("GET")) {
+                e.sendResponseHeaders(405, -1);
+                e.close();
+                return;
+            }
+            Set<String> ids = new TreeSet<>(profiles.keySet());
+            if (Files.isDirectory(PROFILES_DIR)) {
+                try (var dirs = Files.list(PROFILES_DIR)) {
+                    dirs.filter(Files::isDirectory).map(d -> d.getFileName().toString())
+                        .filter(id -> Profile.VALID_ID.matcher(id).matches()).forEach(ids::add);
+                }
+            }
+            sendJson(e, 200, w -> {
+                w.beginArray();
+                for (String id : ids) w.value(id);
+                w.endArray();
+            });
             return;
         }
 
-        byte[] out = buildStateJson().getBytes(StandardCharsets.UTF_8);
-        e.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
-        e.sendResponseHeaders(200, out.length);
-        e.getResponseBody().write(out);
-        e.close();
+        int slash = rest.indexOf('/');
+        Profile p = slash < 0 ? null : profile(rest.substring(0, slash));
+        String route = slash < 0 ? "" : rest.substring(slash);
+        if (p == null) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+        if (route.equals("/state")) handleState(e, p);
+        else if (route.startsWith("/pokemon/")) handlePokemon(e, p, route.substring("/pokemon".length()));
+        else if (route.equals("/events")) p.events.handle(e);
+        else if (route.equals("/progress")) handleProgress(e, p);
+        else if (route.equals("/export")) handleExport(e, p);
+        else if (route.equals("/view")) handleView(e, p);
+        else if (route.startsWith("/games/")) handleGames(e, p, route.substring("/games".length()));
+        else if (route.equals("/search")) SEARCH.handle(e, p);
+        else {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+        }
     }
 
-    static void handlePokemon(HttpExchange e) throws IOException {
-        if (!e.getRequestMethod().equals("PUT")) {
+    static void handleState(HttpExchange e, Profile p) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
             e.sendResponseHeaders(405, -1);
             e.close();
             return;
         }
+        String game = queryParam(e, "game");
+        if (game != null) {
+            handleGameState(e, p, game);
+            return;
+        }
 
-        // /api/pokemon/<name>
-        String path = e.getRequestURI().getPath();
-        String name = path.replace("/api/pokemon/", "");
-        name = URLDecoder.decode(name, StandardCharsets.UTF_8);
-
-        String body = new String(e.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        CaughtSet snapshot;
+        long version;
+        BitSet delta = null;
+        String since = queryParam(e, "since");
+        synchronized (p.writeLock) {
+            snapshot = p.caught.copy();
+            version = p.seq;
+            // "<boot>-<version>": a version from before a restart may be ahead
+            // of (or mean something else than) this run's after a torn log
+            // tail, so only this boot's versions get a delta
+            int dash = since == null ? -1 : since.lastIndexOf('-');
+            if (dash > 0 && since.substring(0, dash).equals(BOOT_ID)) {
+                try {
+                    delta = p.changes.since(Long.parseLong(since.substring(dash + 1)), version);
+                } catch (NumberFormatException ex) {
+                    // fall through to a full response
+                }
+            }
+        }
 
-        // Your existing simple parsing (kept)
-        boolean normal = body.contains("\"normal\":true");
-        boolean shiny = body.contains("\"shiny\":true");
+        String etag = "\"" + BOOT_ID + "-" + version + "\"";
+        e.getResponseHeaders().set("ETag", etag);
+        e.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (etag.equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+            e.sendResponseHeaders(304, -1);
+            e.close();
+            return;
+        }
 
-        Map<String, Boolean> state = new HashMap<>();
-        state.put("normal", normal);
-        state.put("shiny", shiny);
-        caught.put(name, state);
+        // Full: {"boot":"lq3x","version":7,"caught":{...}}
+        // Delta: {"boot":"lq3x","version":7,"delta":true,"caught":{...}} with only
+        // the entries changed since ?since=<boot>-<version>, including ones now
+        // fully unchecked
+        BitSet changed = delta;
+        sendJson(e, 200, w -> {
+            w.beginObject();
+            w.name("boot").value(BOOT_ID);
+            w.name("version").value(version);
+            if (changed != null) w.name("delta").value(true);
+            w.name("caught").beginObject();
+            if (changed == null) {
+                Profile.writeEntries(w, snapshot);
+            } else {
+                for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+                    w.name(Profile.SPECIES.name(id));
+                    Entry.write(w, snapshot.isNormal(id), snapshot.isShiny(id));
+                }
+            }
+            w.endObject();
+            w.endObject();
+        });
+    }
 
-        // Persist immediately so even a crash won't lose it
-        saveCaughtToDisk();
+    // GET /api/state?game=<id>: that game's own flags,
+    // {"boot":"lq3x","game":"gen1","version":3,"caught":{...}}. Small enough
+    // to send whole; the ETag still makes an unchanged one a 304.
+    static void handleGameState(HttpExchange e, Profile p, String game) throws IOException {
+        if (GAMES.game(game) == null) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+        AppState s = p.view.get();
+        CaughtSet set = s.progress.getOrDefault(game, new CaughtSet());
+        String etag = "\"" + BOOT_ID + "-g" + s.version + "\"";
+        e.getResponseHeaders().set("ETag", etag);
+        e.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (etag.equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+            e.sendResponseHeaders(304, -1);
+            e.close();
+            return;
+        }
+        sendJson(e, 200, w -> {
+            w.beginObject().name("boot").value(BOOT_ID).name("game").value(game).name("version").value(s.version);
+            w.name("caught").beginObject();
+            Profile.writeEntries(w, set);
+            w.endObject().endObject();
+        });
+    }
 
-        e.sendResponseHeaders(204, -1);
-        e.close();
+    static String queryParam(HttpExchange e, String key) {
+        String q = e.getRequestURI().getRawQuery();
+        if (q == null) return null;
+        for (String pair : q.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            if (k.equals(key)) return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+        }
+        return null;
     }
 
-    /* ================= PERSISTENCE ================= */
+    // Streams a JSON body with chunked encoding: nothing is built up in memory
+    // and the first bytes go out while the rest is still being written
+    static void sendJson(HttpExchange e, int status, JsonWriter.Body body) throws IOException {
+        e.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        e.sendResponseHeaders(status, 0);
+        try (JsonWriter w = JsonWriter.pooled(e.getResponseBody())) {
+            body.write(w);
+        } finally {
+            e.close();
+        }
+    }
 
-    static String buildStateJson() {
-        StringBuilder json = new StringBuilder();
-        json.append("{\"caught\":{");
+    // rest is what follows .../pokemon: "/<name>" or "/_batch"
+    static void handlePokemon(HttpExchange e, Profile p, String rest) throws IOException {
+        if (rest.equals("/_batch")) {
+            handleBatch(e, p);
+            return;
+        }
+        if (!e.getRequestMethod().equals("PUT")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
 
-        boolean firstPokemon = true;
-        for (var entry : caught.entrySet()) {
-            if (!firstPokemon) json.append(",");
-            firstPokemon = false;
+        String name = URLDecoder.decode(rest.startsWith("/") ? rest.substring(1) : rest, StandardCharsets.UTF_8);
+        String game = queryParam(e, "game");
+        if (name.isEmpty() || (game != null && GAMES.game(game) == null)) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
 
-            Map<String, Boolean> s = entry.getValue();
-            json.append("\"").append(escapeJson(entry.getKey())).append("\":")
-                .append("{\"normal\":").append(s.getOrDefault("normal", false))
-                .append(",\"shiny\":").append(s.getOrDefault("shiny", false))
-                .append("}");
+        Entry body;
+        try {
+            body = Entry.read(jsonBody(e));
+        } catch (IOException ex) {
+            e.sendResponseHeaders(400, -1);
+            e.close();
+            return;
         }
+        // Longer than the log can record, or one made-up name too many
+        if (!Profile.accepts(name)) {
+            e.sendResponseHeaders(400, -1);
+            e.close();
+            return;
+        }
+
+        // ?game=<id> sets that game's own flags (and the overall ones follow);
+        // without it this is the Overall tab
+        if (game != null) p.setInGame(game, name, body.normal, body.shiny);
+        else p.set(name, body.normal, body.shiny);
 
-        json.append("}}");
-        return json.toString();
+        // Hand off to the write-behind flusher; in sync/group mode this waits
+        // until the change is on disk
+        p.persistence.changed();
+
+        e.sendResponseHeaders(204, -1);
+        e.close();
     }
 
-    static void saveCaughtToDisk() throws IOException {
-        // Ensure folder exists
-        File parent = SAVE_FILE.getParentFile();
-        if (parent != null) parent.mkdirs();
+    // Request bodies are small, so they're read whole: the JDK server closes a
+    // kept-alive connection if the handler leaves any of the body unread
+    static JsonReader jsonBody(HttpExchange e) throws IOException {
+        return new JsonReader(ByteBuffer.wrap(e.getRequestBody().readAllBytes()));
+    }
 
-        // Write to temp then rename (avoid corruption)
-        File tmp = new File(SAVE_FILE.getPath() + ".tmp");
-        Files.writeString(tmp.toPath(), buildStateJson(), StandardCharsets.UTF_8);
+    /*
+     * POST /api/pokemon/_batch, applied under one lock and flushed once:
+     *
+     *   {"updates":{"pikachu":{"normal":true,"shiny":false}, ...}}
+     *     sets each listed entry outright
+     *   {"dex":"kitakami", "mode":"shiny", "caught":true}
+     *   {"names":["pikachu", ...], "mode":"normal", "caught":false}
+     *     checks/unchecks a whole section the same way clicking each card
+     *     would: checking shiny also checks normal, unchecking normal also
+     *     unchecks shiny
+     *
+     * With "game":"gen9" the batch applies to that game's own flags, and
+     * "applied" counts the species that changed in it.
+     */
+    static void handleBatch(HttpExchange e, Profile p) throws IOException {
+        if (!e.getRequestMethod().equals("POST")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
 
-        // Best-effort atomic replace
-        if (SAVE_FILE.exists() && !SAVE_FILE.delete()) {
-            // if can't delete, try overwrite directly
-            Files.writeString(SAVE_FILE.toPath(), buildStateJson(), StandardCharsets.UTF_8);
-            tmp.delete();
+        Map<String, Entry> updates = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>();
+        String dex = null;
+        String game = null;
+        boolean shinyMode = false;
+        boolean check = true;
+        try {
+            JsonReader r = jsonBody(e);
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "updates":
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            String name = r.nextName();
+                            updates.put(name, Entry.read(r));
+                        }
+                        r.endObject();
+                        break;
+                    case "names":
+                        r.beginArray();
+                        while (r.hasNext()) names.add(r.nextString());
+                        r.endArray();
+                        break;
+                    case "dex": dex = r.nextString(); break;
+                    case "game": game = r.nextString(); break;
+                    case "mode": shinyMode = r.nextString().equals("shiny"); break;
+                    case "caught": check = r.nextBoolean(); break;
+                    default: r.skipValue();
+                }
+            }
+            r.endObject();
+        } catch (IOException ex) {
+            e.sendResponseHeaders(400, -1);
+            e.close();
             return;
         }
-        if (!tmp.renameTo(SAVE_FILE)) {
-            // fallback: overwrite
-            Files.writeString(SAVE_FILE.toPath(), buildStateJson(), StandardCharsets.UTF_8);
-            tmp.delete();
+        if (!updates.keySet().stream().allMatch(Profile::accepts) || !names.stream().allMatch(Profile::accepts)) {
+            e.sendResponseHeaders(400, -1);
+            e.close();
+            return;
         }
-    }
 
-    static void loadCaughtFromDisk() {
-        try {
-            if (!SAVE_FILE.exists()) return;
-
-            String json = Files.readString(SAVE_FILE.toPath(), StandardCharsets.UTF_8);
-
-            // Expect format: {"caught":{"pikachu":{"normal":true,"shiny":false}, ...}}
-            int caughtIdx = json.indexOf("\"caught\"");
-            if (caughtIdx < 0) return;
-
-            int startObj = json.indexOf("{", caughtIdx);
-            int endObj = json.lastIndexOf("}");
-            if (startObj < 0 || endObj < 0 || endObj <= startObj) return;
-
-            // Find the caught map object boundaries: after "caught":
-            int caughtMapStart = json.indexOf("{", json.indexOf(":", caughtIdx));
-            if (caughtMapStart < 0) return;
-
-            // This is a simple parser for the exact JSON we write.
-            // It will correctly restore what THIS server saved.
-            String inner = json.substring(caughtMapStart + 1, json.lastIndexOf("}")); // inside caught:{ ... }
-            inner = inner.trim();
-            if (inner.isEmpty()) return;
-
-            caught.clear();
-
-            int i = 0;
-            while (i < inner.length()) {
-                // skip whitespace/commas
-                while (i < inner.length() && (inner.charAt(i) == ' ' || inner.charAt(i) == '\n' || inner.charAt(i) == '\r' || inner.charAt(i) == '\t' || inner.charAt(i) == ',')) i++;
-                if (i >= inner.length()) break;
-
-                // key "name"
-                if (inner.charAt(i) != '"') break;
-                int keyEnd = findStringEnd(inner, i + 1);
-                if (keyEnd < 0) break;
-                String key = unescapeJson(inner.substring(i + 1, keyEnd));
-                i = keyEnd + 1;
-
-                // colon
-                while (i < inner.length() && inner.charAt(i) != ':') i++;
-                if (i >= inner.length()) break;
-                i++;
-
-                // object start
-                while (i < inner.length() && inner.charAt(i) != '{') i++;
-                if (i >= inner.length()) break;
-                int objStart = i;
-                int objEnd = findMatchingBrace(inner, objStart);
-                if (objEnd < 0) break;
-
-                String obj = inner.substring(objStart, objEnd + 1);
-
-                boolean normal = obj.contains("\"normal\":true");
-                boolean shiny = obj.contains("\"shiny\":true");
-
-                Map<String, Boolean> state = new HashMap<>();
-                state.put("normal", normal);
-                state.put("shiny", shiny);
-                caught.put(key, state);
-
-                i = objEnd + 1;
+        if (dex != null || game != null) {
+            List<String> section = dex == null ? List.of() : DEX.apiNames(dex);
+            if (section == null || (game != null && GAMES.game(game) == null)) {
+                e.sendResponseHeaders(404, -1);
+                e.close();
+                return;
             }
+            names.addAll(section);
+        }
 
-            System.out.println("Loaded saved state: " + caught.size() + " Pokémon");
-        } catch (Exception ex) {
-            System.out.println("Could not load saved state: " + ex.getMessage());
+        if (game != null) {
+            long[] applied = p.batchInGame(game, updates, names, shinyMode, check);
+            if (applied[2] > applied[1]) p.persistence.changed();
+            sendJson(e, 200, w -> w.beginObject().name("version").value(applied[2]).name("applied").value(applied[0]).endObject());
+            return;
         }
+        long[] applied = p.batch(updates, names, shinyMode, check);
+        long from = applied[0];
+        long to = applied[1];
+
+        if (to > from) p.persistence.changed();
+        sendJson(e, 200, w -> w.beginObject().name("version").value(to).name("applied").value(to - from).endObject());
     }
 
-    static int findStringEnd(String s, int start) {
-        // start points after the opening quote
-        boolean esc = false;
-        for (int i = start; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (esc) { esc = false; continue; }
-            if (c == '\\') { esc = true; continue; }
-            if (c == '"') return i;
+    // {"version":N,"games":[{"id","name","total","normal","shiny","sections":[...]}],"overall":{...}}
+    static void handleProgress(HttpExchange e, Profile p) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
         }
-        return -1;
+        long version = p.version();
+        e.getResponseHeaders().set("Cache-Control", "no-cache");
+        sendJson(e, 200, w -> {
+            w.beginObject().name("version").value(version);
+            p.progress.write(w);
+            w.endObject();
+        });
     }
 
-    static int findMatchingBrace(String s, int openIdx) {
-        int depth = 0;
-        boolean inString = false;
-        boolean esc = false;
-
-        for (int i = openIdx; i < s.length(); i++) {
-            char c = s.charAt(i);
+    // Everything as a data/caught.json snapshot, whichever format is on disk
+    static void handleExport(HttpExchange e, Profile p) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+        CaughtSet copy;
+        long version;
+        synchronized (p.writeLock) {
+            copy = p.caught.copy();
+            version = p.seq;
+        }
+        e.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + p.id + ".json\"");
+        sendJson(e, 200, w -> Profile.writeState(w, copy, version));
+    }
 
-            if (inString) {
-                if (esc) { esc = false; continue; }
-                if (c == '\\') { esc = true; continue; }
-                if (c == '"') inString = false;
-                continue;
-            } else {
-                if (c == '"') { inString = true; continue; }
-                if (c == '{') depth++;
-                if (c == '}') {
-                    depth--;
-                    if (depth == 0) return i;
-                }
+    // GET {"activeGameId":"gen9","activeViewByGame":{"gen9":"shiny"}};
+    // PATCH/PUT {"activeGameId":..} and/or {"gameId":..,"activeView":..}
+    static void handleView(HttpExchange e, Profile p) throws IOException {
+        String method = e.getRequestMethod();
+        AppState s;
+        if (method.equals("GET")) {
+            // A published snapshot: never waits for a writer
+            s = p.view.get();
+        } else if (method.equals("PATCH") || method.equals("PUT")) {
+            try {
+                s = p.view.patch(jsonBody(e)).join();
+            } catch (IOException ex) {
+                e.sendResponseHeaders(400, -1);
+                e.close();
+                return;
             }
+        } else {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
         }
-        return -1;
+        e.getResponseHeaders().set("Cache-Control", "no-cache");
+        sendJson(e, 200, w -> {
+            w.beginObject().name("activeGameId").value(s.activeGameId);
+            w.name("activeViewByGame").beginObject();
+            for (var v : s.activeViewByGame.entrySet()) w.name(v.getKey()).value(v.getValue());
+            w.endObject().endObject();
+        });
     }
 
-    static String escapeJson(String s) {
-        return s.replace("\\", "\\\\").replace("\"", "\\\"");
-    }
+    // POST /api/games/<id>/reset clears that game's own flags and view; other
+    // games keep theirs. Species no other game has leave the Overall Dex too,
+    // and only those get log records. "applied" is how many were cleared.
+    static void handleGames(HttpExchange e, Profile p, String rest) throws IOException {
+        if (!rest.startsWith("/") || !rest.endsWith("/reset")) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+        GameManifest.Game game = GAMES.game(rest.substring(1, rest.length() - "/reset".length()));
+        if (game == null) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+        if (!e.getRequestMethod().equals("POST")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
 
-    static String unescapeJson(String s) {
-        // Only needs to undo what escapeJson does
-        return s.replace("\\\"", "\"").replace("\\\\", "\\");
+        long[] applied = p.resetGame(DEX, game);
+        if (applied[2] > applied[1]) p.persistence.changed();
+        sendJson(e, 200, w -> w.beginObject().name("version").value(applied[2])
+            .name("applied").value(applied[0]).endObject());
     }
 
     /* ================= STATIC ================= */
 
+    // Cached in memory with gzip variants; see StaticAssets
+    static final StaticAssets ASSETS = new StaticAssets(Path.of("static"));
+
+    // Raw PokéAPI pokedex dumps; mostly over LARGE_FILE_BYTES, so streamed
+    static final StaticAssets DEX_FILES = new StaticAssets(Path.of("dex_json"));
+
+    // GET /api/sprite/<speciesId>[?shiny=1], cached in memory and data/sprites/
+    static final SpriteCache SPRITES = SpriteCache.fromEnv();
+
+    // GET /api/atlas/<dex>: every sprite of a dex in a few sheets
+    static final SpriteAtlas ATLAS = new SpriteAtlas(SPRITES, DEX);
+
     static void serveFile(HttpExchange e, String path) throws IOException {
-        File f = new File(path);
-        if (!f.exists() || f.isDirectory()) {
-            e.sendResponseHeaders(404, -1);
-            e.close();
-            return;
-        }
-        byte[] bytes = Files.readAllBytes(f.toPath());
-        e.getResponseHeaders().add("Content-Type", contentType(path));
-        e.sendResponseHeaders(200, bytes.length);
-        e.getResponseBody().write(bytes);
-        e.close();
+        ASSETS.serve(e, Path.of(path));
     }
 
     static void serveDir(HttpExchange e, String base) throws IOException {
-        String p = e.getRequestURI().getPath().substring(base.length() + 1);
-        serveFile(e, base + "/" + p);
+        ASSETS.serve(e, subPath(e, "/" + base, ASSETS));
+    }
+
+    // File under a context prefix; resolve() refuses anything that climbs
+    // out of the assets root ("..")
+    static Path subPath(HttpExchange e, String prefix, StaticAssets assets) {
+        String p = e.getRequestURI().getPath();
+        return p.length() > prefix.length() + 1 ? assets.resolve(p.substring(prefix.length() + 1)) : null;
     }
 
     static String contentType(String p) {
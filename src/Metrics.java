@@ -0,0 +1,238 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Request and persistence metrics for GET /api/metrics, in the Prometheus
+ * text format.
+ *
+ * Every counter and histogram is created when a route or timer is
+ * registered; recording is a few LongAdder / atomic increments, so it takes
+ * no locks and allocates nothing. The one per-request object is the small
+ * stream wrapper that counts response bytes.
+ */
+class Metrics {
+
+    /**
+     * Log-linear latency histogram in nanoseconds, in the spirit of
+     * HdrHistogram: each power of two is split into 2^SUB_BITS buckets, so
+     * any recorded value is within 12.5% of its bucket's bounds.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts.incrementAndGet(index(nanos));
+            count.increment();
+            sum.add(nanos);
+        }
+
+        static int index(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            return (exp - SUB_BITS + 1) * SUB + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+        }
+
+        // Largest value that lands in bucket i
+        static long upper(int i) {
+            if (i < SUB) return i;
+            int shift = i / SUB - 1;
+            long lower = (long) (SUB + i % SUB) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        /** Approximate value at quantile q (0..1) of everything recorded so far. */
+        long quantile(double q) {
+            long total = 0;
+            long[] snap = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) total += snap[i] = counts.get(i);
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snap[i];
+                if (seen >= Math.max(rank, 1)) return upper(i);
+            }
+            return upper(BUCKETS - 1);
+        }
+    }
+
+    static final class Route {
+        final String name;
+        final LongAdder requests = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicLongArray statuses = new AtomicLongArray(600);
+        final Histogram latency = new Histogram();
+
+        Route(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final Map<String, Route> ROUTES = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> TIMERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentSkipListMap<>();
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** Handler that records count, status, response bytes and latency under route. */
+    static HttpHandler wrap(String route, HttpHandler h) {
+        Route r = ROUTES.computeIfAbsent(route, Route::new);
+        return e -> {
+            long start = System.nanoTime();
+            CountingStream out = new CountingStream(e.getResponseBody());
+            e.setStreams(null, out);
+            try {
+                h.handle(e);
+            } finally {
+                int status = e.getResponseCode();
+                r.requests.increment();
+                r.bytes.add(out.count);
+                r.statuses.incrementAndGet(status >= 100 && status < 600 ? status : 500);
+                r.latency.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /** Histogram for an operation outside the request path (snapshot save, load). */
+    static Histogram timer(String op) {
+        return TIMERS.computeIfAbsent(op, k -> new Histogram());
+    }
+
+    static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    static void handle(HttpExchange e) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        e.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        e.getResponseHeaders().set("Cache-Control", "no-cache");
+        e.sendResponseHeaders(200, body.length);
+        try (OutputStream out = e.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    static String render() {
+        StringBuilder sb = new StringBuilder(8192);
+
+        sb.append("# TYPE pokedex_http_requests_total counter\n");
+        for (Route r : ROUTES.values()) {
+            sample(sb, "pokedex_http_requests_total", "route=\"" + r.name + "\"", r.requests.sum());
+        }
+        sb.append("# TYPE pokedex_http_responses_total counter\n");
+        for (Route r : ROUTES.values()) {
+            for (int s = 0; s < 600; s++) {
+                long n = r.statuses.get(s);
+                if (n > 0) sample(sb, "pokedex_http_responses_total", "route=\"" + r.name + "\",status=\"" + s + "\"", n);
+            }
+        }
+        sb.append("# TYPE pokedex_http_response_bytes_total counter\n");
+        for (Route r : ROUTES.values()) {
+            sample(sb, "pokedex_http_response_bytes_total", "route=\"" + r.name + "\"", r.bytes.sum());
+        }
+        sb.append("# TYPE pokedex_http_request_seconds summary\n");
+        for (Route r : ROUTES.values()) summary(sb, "pokedex_http_request_seconds", "route=\"" + r.name + "\"", r.latency);
+
+        sb.append("# TYPE pokedex_persistence_seconds summary\n");
+        for (Map.Entry<String, Histogram> t : TIMERS.entrySet()) {
+            summary(sb, "pokedex_persistence_seconds", "op=\"" + t.getKey() + "\"", t.getValue());
+        }
+
+        for (Map.Entry<String, LongSupplier> g : GAUGES.entrySet()) {
+            sb.append("# TYPE ").append(g.getKey()).append(" gauge\n");
+            sample(sb, g.getKey(), null, g.getValue().getAsLong());
+        }
+
+        jvm(sb);
+        return sb.toString();
+    }
+
+    private static void jvm(StringBuilder sb) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        sb.append("# TYPE jvm_memory_heap_bytes gauge\n");
+        sample(sb, "jvm_memory_heap_bytes", "area=\"used\"", heap.getUsed());
+        sample(sb, "jvm_memory_heap_bytes", "area=\"committed\"", heap.getCommitted());
+        sample(sb, "jvm_memory_heap_bytes", "area=\"max\"", heap.getMax());
+
+        sb.append("# TYPE jvm_gc_collections_total counter\n");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(sb, "jvm_gc_collections_total", "gc=\"" + gc.getName() + "\"", gc.getCollectionCount());
+        }
+        sb.append("# TYPE jvm_gc_collection_seconds_total counter\n");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append("jvm_gc_collection_seconds_total{gc=\"").append(gc.getName()).append("\"} ")
+                .append(gc.getCollectionTime() / 1000.0).append('\n');
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        sb.append("# TYPE jvm_threads gauge\n");
+        sample(sb, "jvm_threads", "state=\"live\"", threads.getThreadCount());
+        sample(sb, "jvm_threads", "state=\"daemon\"", threads.getDaemonThreadCount());
+        sample(sb, "jvm_threads", "state=\"peak\"", threads.getPeakThreadCount());
+
+        sb.append("# TYPE process_uptime_seconds gauge\n");
+        sb.append("process_uptime_seconds ").append(ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String metric, String labels, Histogram h) {
+        for (double q : QUANTILES) {
+            sb.append(metric).append('{').append(labels).append(",quantile=\"").append(q).append("\"} ")
+                .append(h.quantile(q) / 1e9).append('\n');
+        }
+        sb.append(metric).append("_sum{").append(labels).append("} ").append(h.sum.sum() / 1e9).append('\n');
+        sb.append(metric).append("_count{").append(labels).append("} ").append(h.count.sum()).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String metric, String labels, long value) {
+        sb.append(metric);
+        if (labels != null) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+
+    // Counts what a handler writes, so chunked responses get sized too
+    private static final class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * One person's progress: their caught set, its log and snapshot, version
+ * counter, change ring, completion counters, UI state and event stream.
+ *
+ * Each game has its own flags, kept in the UI state (AppState.progress via
+ * StateStore). The caught set is the Overall Dex: a species is in it while
+ * any game has it, or when it was checked on the Overall tab itself.
+ * Each profile has its own lock and its own write-behind flusher, so
+ * writers on different profiles never wait on each other or on each
+ * other's disk.
+ *
+ * The "default" profile lives directly in data/ (the files a single-user
+ * install already has); others live in data/profiles/<id>/.
+ */
+class Profile {
+
+    static final String DEFAULT = "default";
+    static final Pattern VALID_ID = Pattern.compile("[a-z0-9][a-z0-9_-]{0,31}");
+
+    // Once the log grows past this many bytes it's folded into a new snapshot
+    static final long COMPACT_BYTES = Long.parseLong(System.getenv().getOrDefault("COMPACT_BYTES", "1048576"));
+
+    // SNAPSHOT=json keeps writing the old JSON format; by default snapshots
+    // are binary (see Snapshot) and JSON is only an export (GET /api/export)
+    static final boolean BINARY = !System.getenv().getOrDefault("SNAPSHOT", "binary").equalsIgnoreCase("json");
+
+    static final SpeciesIndex SPECIES = SpeciesIndex.shared();
+
+    // GET /api/metrics, summed over all profiles
+    private static final Metrics.Histogram LOAD_TIME = Metrics.timer("load");
+    private static final Metrics.Histogram SAVE_TIME = Metrics.timer("save");
+    private static final Metrics.Histogram FLUSH_TIME = Metrics.timer("flush");
+
+    final String id;
+    final CaughtSet caught = new CaughtSet();
+
+    // File persistence (survives Ctrl+C + restart): a snapshot plus an
+    // append-only log of every change made since that snapshot
+    final Path jsonSnapshot;
+    final Path binarySnapshot;
+    final CaughtLog log;
+
+    // Every change gets the next seq; the snapshot records the last one it covers.
+    // Doubles as the state version clients sync against (ETag, ?since=).
+    final Object writeLock = new Object();
+    long seq;
+    ChangeRing changes;
+
+    // Per-game / per-section / overall completion, updated on every change
+    ProgressCounters progress;
+
+    // Live updates for this profile's open tabs
+    final EventHub events = new EventHub(Integer.parseInt(System.getenv().getOrDefault("EVENT_QUEUE", "256")));
+
+    // Batches log flushes off the request path (see DURABILITY / FLUSH_MS / FLUSH_MAX)
+    WriteBehind persistence;
+
+    // Active game and normal/shiny view per game (GET/PATCH /api/view), in state.json
+    final StateStore view;
+
+    private Profile(String id, Path dir) {
+        this.id = id;
+        this.jsonSnapshot = dir.resolve("caught.json");
+        this.binarySnapshot = dir.resolve("caught.bin");
+        this.log = new CaughtLog(dir.resolve("caught.log"));
+        this.view = new StateStore(dir.resolve("state.json"));
+        view.setListener(events::publish);
+    }
+
+    /** Loads (or creates) the profile stored under dir. */
+    static Profile open(String id, Path dir, GameManifest games, DexCatalog dex) {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not create " + dir, ex);
+        }
+        Profile p = new Profile(id, dir);
+        p.load();
+        p.changes = new ChangeRing(Integer.parseInt(System.getenv().getOrDefault("CHANGE_RING", "4096")), p.seq);
+        p.seedGames(games, dex);
+        p.progress = new ProgressCounters(games, dex, p.caught, p.view.get().progress);
+        p.view.setEntryListener(p.progress::changed);
+        p.persistence = WriteBehind.fromEnv(p::flushLog);
+        return p;
+    }
+
+    // Profiles from before games were tracked separately: each game starts
+    // out with the overall flags of its own species. Only games state.json
+    // doesn't have yet; a reset game keeps its empty set.
+    private void seedGames(GameManifest games, DexCatalog dex) {
+        Map<String, CaughtSet> seeds = new HashMap<>();
+        AppState state = view.get();
+        for (GameManifest.Game g : games.games) {
+            if (state.progress.containsKey(g.id)) continue;
+            CaughtSet set = new CaughtSet();
+            for (GameManifest.Section s : g.sections) {
+                DexCatalog.Dex d = dex.get(s.dex);
+                if (d == null) continue;
+                for (int id : d.nameIds) set.set(id, caught.isNormal(id), caught.isShiny(id));
+            }
+            seeds.put(g.id, set);
+        }
+        if (!seeds.isEmpty()) view.seed(seeds).join();
+    }
+
+    Path saveFile() {
+        return BINARY ? binarySnapshot : jsonSnapshot;
+    }
+
+    /** Current version, for responses that don't need a copy of the set. */
+    long version() {
+        synchronized (writeLock) {
+            return seq;
+        }
+    }
+
+    /* ================= CHANGES ================= */
+
+    void set(String name, boolean normal, boolean shiny) {
+        synchronized (writeLock) {
+            applyLocked(name, normal, shiny);
+            // Published under the lock so subscribers see changes in seq order
+            long version = seq;
+            events.publish("caught", version, JsonWriter.toString(w -> {
+                w.beginObject().name("version").value(version).name("name").value(name);
+                w.name("normal").value(normal).name("shiny").value(shiny).endObject();
+            }));
+        }
+    }
+
+    /**
+     * Applies updates outright, then checks/unchecks names the way clicking
+     * each card would. Returns {from, to}: the versions before and after.
+     */
+    long[] batch(Map<String, Entry> updates, Collection<String> names, boolean shinyMode, boolean check) {
+        synchronized (writeLock) {
+            long from = seq;
+            for (var u : updates.entrySet()) {
+                applyLocked(u.getKey(), u.getValue().normal, u.getValue().shiny);
+            }
+            for (String name : names) {
+                int id = SPECIES.claim(name);
+                if (id < 0) continue;
+                Entry e = clicked(caught.isNormal(id), caught.isShiny(id), shinyMode, check);
+                if (e.normal != caught.isNormal(id) || e.shiny != caught.isShiny(id)) applyLocked(name, e.normal, e.shiny);
+            }
+            long to = seq;
+            // One event for the whole batch; clients catch up with ?since=
+            if (to > from) {
+                events.publish("batch", to, JsonWriter.toString(w ->
+                    w.beginObject().name("from").value(from).name("version").value(to).endObject()));
+            }
+            return new long[] {from, to};
+        }
+    }
+
+    // Flags after checking / unchecking a card in a mode: checking shiny also
+    // checks normal, unchecking normal also unchecks shiny
+    static Entry clicked(boolean normal, boolean shiny, boolean shinyMode, boolean check) {
+        if (shinyMode) {
+            shiny = check;
+            if (shiny) normal = true;
+        } else {
+            normal = check;
+            if (!normal) shiny = false;
+        }
+        return Entry.of(normal, shiny);
+    }
+
+    /* ================= PER GAME ================= */
+
+    /**
+     * batch() for one game's own flags, then the overall flags of the
+     * species it touched (see syncOverall). Returns {applied in the game,
+     * overall version before, overall version after}.
+     */
+    long[] batchInGame(String game, Map<String, Entry> updates, Collection<String> names, boolean shinyMode, boolean check) {
+        Set<String> touched = new LinkedHashSet<>(updates.keySet());
+        touched.addAll(names);
+        Set<String> clicks = new LinkedHashSet<>(names);
+        int applied = view.editGame(game, touched, (name, normal, shiny) -> {
+            Entry e = updates.getOrDefault(name, Entry.of(normal, shiny));
+            return clicks.contains(name) ? clicked(e.normal, e.shiny, shinyMode, check) : e;
+        }).join();
+        long[] overall = syncOverall(touched);
+        return new long[] {applied, overall[0], overall[1]};
+    }
+
+    void setInGame(String game, String name, boolean normal, boolean shiny) {
+        batchInGame(game, Map.of(name, Entry.of(normal, shiny)), List.of(), false, false);
+    }
+
+    /**
+     * Clears one game's own flags and view; other games keep theirs. The
+     * overall flags of its species are then recomputed from the games left.
+     * Returns {species cleared, overall version before, after}.
+     */
+    long[] resetGame(DexCatalog dex, GameManifest.Game game) {
+        int cleared = view.resetGame(game.id).join();
+        Set<String> names = new LinkedHashSet<>();
+        for (GameManifest.Section s : game.sections) {
+            List<String> section = dex.apiNames(s.dex);
+            if (section != null) names.addAll(section);
+        }
+        long[] overall = syncOverall(names);
+        return new long[] {cleared, overall[0], overall[1]};
+    }
+
+    // Sets each name's overall flags to whether any game has them. Reads the
+    // latest game sets under writeLock, so of two concurrent game edits the
+    // later sync sees both.
+    private long[] syncOverall(Collection<String> names) {
+        synchronized (writeLock) {
+            Collection<CaughtSet> games = view.get().progress.values();
+            Map<String, Entry> updates = new LinkedHashMap<>();
+            for (String name : names) {
+                int id = SPECIES.claim(name);
+                if (id < 0) continue;
+                boolean normal = false;
+                boolean shiny = false;
+                for (CaughtSet g : games) {
+                    normal |= g.isNormal(id);
+                    shiny |= g.isShiny(id);
+                }
+                if (normal != caught.isNormal(id) || shiny != caught.isShiny(id)) updates.put(name, Entry.of(normal, shiny));
+            }
+            return batch(updates, List.of(), false, false);
+        }
+    }
+
+    /**
+     * Whether a name from a request can be stored: short enough for the log,
+     * and either a known species or one of the MAX_UNKNOWN others.
+     */
+    static boolean accepts(String name) {
+        return CaughtLog.fits(name) && SPECIES.claim(name) >= 0;
+    }
+
+    // Caller holds writeLock. Set update and log append happen together so
+    // log order matches seq order; the append goes first so a record it
+    // rejects leaves nothing changed in memory either.
+    private void applyLocked(String name, boolean normal, boolean shiny) {
+        int id = SPECIES.claim(name);
+        if (id < 0) throw new IllegalArgumentException("Too many unknown species names");
+        log.append(seq + 1, name, normal, shiny);
+        seq++;
+        boolean wasNormal = caught.isNormal(id);
+        boolean wasShiny = caught.isShiny(id);
+        caught.set(id, normal, shiny);
+        progress.changed(id, wasNormal, wasShiny, normal, shiny);
+        changes.add(seq, id);
+    }
+
+    /* ================= PERSISTENCE ================= */
+
+    // Runs on the write-behind flusher thread
+    void flushLog() throws IOException {
+        long start = System.nanoTime();
+        log.flush();
+        FLUSH_TIME.record(System.nanoTime() - start);
+        if (log.size() >= COMPACT_BYTES) save();
+    }
+
+    /** Flushes, writes a final snapshot and closes the log. */
+    void close() throws IOException {
+        view.close();
+        persistence.close();
+        save();
+        log.close();
+    }
+
+    // {"seq":12,"caught":{"pikachu":{"normal":true,"shiny":false}, ...}}; seq < 0 leaves it out
+    static void writeState(JsonWriter w, CaughtSet entries, long seq) throws IOException {
+        w.beginObject();
+        if (seq >= 0) w.name("seq").value(seq);
+        w.name("caught").beginObject();
+        writeEntries(w, entries);
+        w.endObject();
+        w.endObject();
+    }
+
+    static void writeEntries(JsonWriter w, CaughtSet entries) throws IOException {
+        entries.forEach((id, normal, shiny) -> {
+            w.name(SPECIES.name(id));
+            Entry.write(w, normal, shiny);
+        });
+    }
+
+    // Writes a fresh snapshot and empties the log. Synchronized so a shutdown
+    // save can't race the flusher on the temp file.
+    synchronized void save() throws IOException {
+        long start = System.nanoTime();
+        try {
+            saveSnapshot();
+        } finally {
+            SAVE_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private void saveSnapshot() throws IOException {
+        // Everything already in the log file has a seq <= this one, so it's
+        // safe to truncate once the snapshot is down. Records still queued in
+        // memory may be older; replay skips them by seq.
+        CaughtSet copy;
+        long snapSeq;
+        synchronized (writeLock) {
+            copy = caught.copy();
+            snapSeq = seq;
+        }
+
+        if (BINARY) {
+            Snapshot.write(binarySnapshot, copy, snapSeq, SPECIES);
+            log.truncate();
+            return;
+        }
+
+        Path parent = jsonSnapshot.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+
+        // Write + fsync a temp file, then rename over the old one, so a crash
+        // leaves either the old or the new file, never a torn one
+        Path tmp = Path.of(jsonSnapshot + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            JsonWriter w = new JsonWriter(Channels.newOutputStream(ch));
+            writeState(w, copy, snapSeq);
+            w.flush();
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, jsonSnapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, jsonSnapshot, StandardCopyOption.REPLACE_EXISTING);
+        }
+        log.truncate();
+    }
+
+    private void load() {
+        long start = System.nanoTime();
+        long snapSeq = loadSnapshot();
+        try {
+            seq = log.replay(snapSeq, (s, name, normal, shiny) ->
+                caught.set(SPECIES.id(name), normal, shiny));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not open " + log, ex);
+        }
+        LOAD_TIME.record(System.nanoTime() - start);
+    }
+
+    // Returns the seq the snapshot covers (0 for none or an older-format file).
+    // With both formats on disk (after switching SNAPSHOT), the newer wins.
+    private long loadSnapshot() {
+        boolean hasBinary = Files.exists(binarySnapshot);
+        boolean hasJson = Files.exists(jsonSnapshot);
+        try {
+            if (hasBinary && hasJson) {
+                hasBinary = Files.getLastModifiedTime(binarySnapshot).compareTo(Files.getLastModifiedTime(jsonSnapshot)) >= 0;
+            }
+        } catch (IOException ex) {
+            // keep the binary one
+        }
+        if (hasBinary) {
+            try {
+                long snapSeq = Snapshot.read(binarySnapshot, caught, SPECIES);
+                System.out.println("Loaded saved state for " + id + ": " + caught.size() + " Pokémon");
+                return snapSeq;
+            } catch (IOException ex) {
+                System.out.println("Could not load saved state for " + id + ": " + ex.getMessage());
+                if (!hasJson) return 0;
+                System.out.println("Falling back to " + jsonSnapshot);
+            }
+        }
+        if (!hasJson) return 0;
+        return loadJsonSnapshot();
+    }
+
+    private long loadJsonSnapshot() {
+        try (InputStream in = Files.newInputStream(jsonSnapshot)) {
+            long snapSeq = readState(new JsonReader(in), caught);
+            System.out.println("Loaded saved state for " + id + ": " + caught.size() + " Pokémon");
+            return snapSeq;
+        } catch (Exception ex) {
+            System.out.println("Could not load saved state for " + id + ": " + ex.getMessage());
+            return 0;
+        }
+    }
+
+    // Reads what writeState wrote into target; returns the seq (0 if absent)
+    static long readState(JsonReader r, CaughtSet target) throws IOException {
+        long snapSeq = 0;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "seq":
+                    snapSeq = r.nextLong();
+                    break;
+                case "caught":
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        int sid = SPECIES.id(r.nextName());
+                        Entry entry = Entry.read(r);
+                        target.set(sid, entry.normal, entry.shiny);
+                    }
+                    r.endObject();
+                    break;
+                default:
+                    r.skipValue();
+            }
+        }
+        r.endObject();
+        return snapSeq;
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caught / shiny totals for every game, every section and the overall dex,
+ * kept current as species change instead of being recounted per request.
+ *
+ * Each group (a section, a game = union of its sections, or overall) has a
+ * membership bitset over SpeciesIndex ids. A game's groups count that game's
+ * own flags (AppState.progress); the overall group counts the profile's
+ * overall set. Counts start as popcounts of those flags within each group,
+ * and a change only touches the groups of its game that contain the species.
+ */
+class ProgressCounters {
+
+    private final GameManifest manifest;
+    private final Map<String, Integer> gameIndex = new HashMap<>();
+    private final int[] gameGroup;        // game index -> group
+    private final int[] groupGame;        // group -> game index, -1 for overall
+    private final int[][] sectionGroup;   // game index, section index -> group
+    private final int overallGroup;
+
+    private final int[] total;
+    private final int[] normal;
+    private final int[] shiny;
+    private final int[][] groupsOf;       // species id -> groups containing it
+
+    /** overall counts the Overall Dex; perGame holds each game's own flags (missing = none). */
+    ProgressCounters(GameManifest manifest, DexCatalog catalog, CaughtSet overall, Map<String, CaughtSet> perGame) {
+        this.manifest = manifest;
+        List<long[]> members = new ArrayList<>();
+        List<CaughtSet> flags = new ArrayList<>();
+        List<Integer> owner = new ArrayList<>();
+        int games = manifest.games.size();
+        gameGroup = new int[games];
+        sectionGroup = new int[games][];
+        for (int g = 0; g < games; g++) {
+            GameManifest.Game game = manifest.games.get(g);
+            gameIndex.put(game.id, g);
+            CaughtSet own = perGame.getOrDefault(game.id, new CaughtSet());
+            long[] union = new long[0];
+            sectionGroup[g] = new int[game.sections.size()];
+            for (int s = 0; s < game.sections.size(); s++) {
+                long[] m = membership(catalog.get(game.sections.get(s).dex));
+                sectionGroup[g][s] = members.size();
+                members.add(m);
+                flags.add(own);
+                owner.add(g);
+                union = or(union, m);
+            }
+            gameGroup[g] = members.size();
+            members.add(union);
+            flags.add(own);
+            owner.add(g);
+        }
+        overallGroup = members.size();
+        members.add(membership(catalog.get(DexCatalog.OVERALL)));
+        flags.add(overall);
+        owner.add(-1);
+
+        int groups = members.size();
+        groupGame = new int[groups];
+        for (int i = 0; i < groups; i++) groupGame[i] = owner.get(i);
+        total = new int[groups];
+        normal = new int[groups];
+        shiny = new int[groups];
+        int maxId = 0;
+        for (long[] m : members) maxId = Math.max(maxId, m.length * 64);
+        int[] counts = new int[maxId];
+        for (int i = 0; i < groups; i++) {
+            long[] m = members.get(i);
+            for (int w = 0; w < m.length; w++) {
+                total[i] += Long.bitCount(m[w]);
+                for (long bits = m[w]; bits != 0; bits &= bits - 1) counts[w * 64 + Long.numberOfTrailingZeros(bits)]++;
+            }
+            normal[i] = flags.get(i).countIn(m, false);
+            shiny[i] = flags.get(i).countIn(m, true);
+        }
+
+        groupsOf = new int[maxId][];
+        for (int id = 0; id < maxId; id++) groupsOf[id] = new int[counts[id]];
+        int[] fill = new int[maxId];
+        for (int i = 0; i < groups; i++) {
+            long[] m = members.get(i);
+            for (int w = 0; w < m.length; w++) {
+                for (long bits = m[w]; bits != 0; bits &= bits - 1) {
+                    int id = w * 64 + Long.numberOfTrailingZeros(bits);
+                    groupsOf[id][fill[id]++] = i;
+                }
+            }
+        }
+    }
+
+    /** Call with the species' overall flags before and after a change. */
+    void changed(int id, boolean wasNormal, boolean wasShiny, boolean isNormal, boolean isShiny) {
+        changed(-1, id, wasNormal, wasShiny, isNormal, isShiny);
+    }
+
+    /** Same, for a change to one game's own flags. */
+    void changed(String game, int id, boolean wasNormal, boolean wasShiny, boolean isNormal, boolean isShiny) {
+        Integer g = gameIndex.get(game);
+        if (g != null) changed(g, id, wasNormal, wasShiny, isNormal, isShiny);
+    }
+
+    private synchronized void changed(int game, int id, boolean wasNormal, boolean wasShiny, boolean isNormal, boolean isShiny) {
+        if (id < 0 || id >= groupsOf.length) return;
+        int dn = (isNormal ? 1 : 0) - (wasNormal ? 1 : 0);
+        int ds = (isShiny ? 1 : 0) - (wasShiny ? 1 : 0);
+        if (dn == 0 && ds == 0) return;
+        for (int g : groupsOf[id]) {
+            if (groupGame[g] != game) continue;
+            normal[g] += dn;
+            shiny[g] += ds;
+        }
+    }
+
+    /**
+     * {"games":[{"id","name","total","normal","shiny","sections":[{"id","dex",...}]}],
+     *  "overall":{"total","normal","shiny"}} — written into an open object.
+     */
+    void write(JsonWriter w) throws IOException {
+        int[] n;
+        int[] s;
+        synchronized (this) {
+            n = normal.clone();
+            s = shiny.clone();
+        }
+        w.name("games").beginArray();
+        for (int g = 0; g < gameGroup.length; g++) {
+            GameManifest.Game game = manifest.games.get(g);
+            w.beginObject().name("id").value(game.id).name("name").value(game.name);
+            counts(w, gameGroup[g], n, s);
+            w.name("sections").beginArray();
+            for (int i = 0; i < sectionGroup[g].length; i++) {
+                GameManifest.Section sec = game.sections.get(i);
+                w.beginObject().name("id").value(sec.id).name("dex").value(sec.dex);
+                counts(w, sectionGroup[g][i], n, s);
+                w.endObject();
+            }
+            w.endArray().endObject();
+        }
+        w.endArray();
+        w.name("overall").beginObject();
+        counts(w, overallGroup, n, s);
+        w.endObject();
+    }
+
+    private void counts(JsonWriter w, int group, int[] n, int[] s) throws IOException {
+        w.name("total").value(total[group]).name("normal").value(n[group]).name("shiny").value(s[group]);
+    }
+
+    private static long[] membership(DexCatalog.Dex d) {
+        long[] m = new long[0];
+        if (d == null) return m;
+        for (int id : d.nameIds) {
+            if (id >> 6 >= m.length) m = Arrays.copyOf(m, Math.max((id >> 6) + 1, m.length * 2));
+            m[id >> 6] |= 1L << id;
+        }
+        return m;
+    }
+
+    private static long[] or(long[] a, long[] b) {
+        long[] out = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) out[i] |= b[i];
+        return out;
+    }
+}
@@ -0,0 +1,65 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the executor HttpServer dispatches requests on.
+ *
+ * EXECUTOR=virtual  (default) one virtual thread per request
+ * EXECUTOR=platform bounded pool of THREADS platform threads
+ */
+class RequestExecutors {
+
+    static ExecutorService fromEnv() {
+        String mode = System.getenv().getOrDefault("EXECUTOR", "virtual");
+        int threads = Integer.parseInt(System.getenv().getOrDefault("THREADS",
+            String.valueOf(Runtime.getRuntime().availableProcessors() * 4)));
+        return create(mode, threads);
+    }
+
+    static ExecutorService create(String mode, int threads) {
+        if (mode.equals("platform")) return bounded(threads);
+        if (!mode.equals("virtual")) {
+            throw new IllegalArgumentException("Unknown EXECUTOR mode: " + mode);
+        }
+        return perTask("http");
+    }
+
+    static String describe(ExecutorService ex) {
+        if (ex instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor p = (ThreadPoolExecutor) ex;
+            if (p.getMaximumPoolSize() == Integer.MAX_VALUE) return "cached platform threads";
+            return p.getMaximumPoolSize() + " platform threads";
+        }
+        return "virtual threads";
+    }
+
+    // One thread per task, virtual when the JDK has them. They're looked up
+    // reflectively so the server still compiles and runs on JDKs that don't
+    // (falls back to a cached pool, which is still one thread per task).
+    static ExecutorService perTask(String prefix) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            return Executors.newCachedThreadPool(named(prefix));
+        }
+    }
+
+    private static ExecutorService bounded(int threads) {
+        // Queue absorbs short bursts; when it's full the dispatcher thread runs
+        // the request itself, which pushes back on accepting new connections.
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(threads * 64), named("http"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    static ThreadFactory named(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
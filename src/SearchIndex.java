@@ -0,0 +1,305 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Species search across every dex the tracker knows:
+ *
+ *   GET /api/search?q=&game=&caught=&shiny=&offset=0&limit=50
+ *
+ *   q       part of a name, ignoring case, spaces and punctuation ("mr mime",
+ *           "flabebe"); names that start with it come first
+ *   game    comma-separated game ids (gen9), section ids (paldea) or dex
+ *           names; a species must be in all of them, and in none of the ones
+ *           prefixed with "-": game=paldea,-galar
+ *   caught  yes / no (normal flag)     shiny  yes / no
+ *
+ * Everything is a bitset over SpeciesIndex ids, built once from the catalog:
+ * membership per game / section / dex, and the species containing each 1-3
+ * character substring of their name, plus each prefix ("^pik"). A query ANDs
+ * the bitsets it names with the profile's CaughtSet words; only a q longer
+ * than three characters needs its candidates checked against the names.
+ */
+class SearchIndex {
+
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 500;
+
+    static final int GRAM = 3;
+
+    static final class Query {
+        String q = "";
+        final List<String> games = new ArrayList<>();
+        final List<String> notGames = new ArrayList<>();
+        Boolean caught;
+        Boolean shiny;
+        int offset;
+        int limit = DEFAULT_LIMIT;
+    }
+
+    static final class Page {
+        final int total;
+        final int[] ids;
+
+        Page(int total, int[] ids) {
+            this.total = total;
+            this.ids = ids;
+        }
+    }
+
+    private final int words;
+    private final long[] all;
+    private final String[] names;         // display name by species id
+    private final int[] speciesIds;       // national number (sprite) by species id
+    private final String[][] keys;        // normalized apiName / display name by species id
+    private final Map<String, long[]> grams = new HashMap<>();
+    private final Map<String, long[]> groups = new HashMap<>();
+    private final Map<String, long[]> games = new LinkedHashMap<>();
+
+    SearchIndex(GameManifest manifest, DexCatalog catalog) {
+        long start = System.nanoTime();
+        int maxId = 0;
+        for (DexCatalog.Dex d : catalog.all()) {
+            for (int id : d.nameIds) maxId = Math.max(maxId, id);
+        }
+        words = (maxId >> 6) + 1;
+        all = new long[words];
+        names = new String[maxId + 1];
+        speciesIds = new int[maxId + 1];
+        keys = new String[maxId + 1][];
+
+        for (DexCatalog.Dex d : catalog.all()) {
+            long[] m = new long[words];
+            for (int i = 0; i < d.size(); i++) {
+                int id = d.nameIds[i];
+                m[id >> 6] |= 1L << id;
+                if (names[id] != null) continue;
+                // First dex to list a species names it; lza.json's display names win over titles
+                all[id >> 6] |= 1L << id;
+                names[id] = d.displayName(i);
+                speciesIds[id] = d.speciesIds[i];
+                String api = normalize(d.apiName(i));
+                String shown = normalize(names[id]);
+                keys[id] = api.equals(shown) ? new String[] {api} : new String[] {api, shown};
+                for (String k : keys[id]) addGrams(id, k);
+            }
+            groups.put(d.name, m);
+        }
+        for (GameManifest.Game g : manifest.games) {
+            long[] union = new long[words];
+            for (GameManifest.Section s : g.sections) {
+                long[] m = groups.getOrDefault(s.dex, new long[words]);
+                groups.putIfAbsent(s.id, m);
+                or(union, m);
+            }
+            groups.put(g.id, union);
+            games.put(g.id, union);
+        }
+        System.out.printf("Indexed %d species, %d name grams in %d ms%n",
+            popcount(all), grams.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Species matching q, in result order, offset / limit applied. */
+    Page search(Query q, long[] normal, long[] shiny) {
+        long[] hits = all.clone();
+        for (String g : q.games) and(hits, groups.getOrDefault(g, new long[0]), false);
+        for (String g : q.notGames) and(hits, groups.getOrDefault(g, new long[0]), true);
+        if (q.caught != null) and(hits, normal, !q.caught);
+        if (q.shiny != null) and(hits, shiny, !q.shiny);
+
+        long[] prefix = new long[words];
+        String text = normalize(q.q);
+        if (!text.isEmpty()) {
+            // Every gram of text narrows it down; beyond GRAM characters the
+            // grams can match out of order, so those candidates get checked
+            if (text.length() <= GRAM) {
+                and(hits, grams.getOrDefault(text, new long[0]), false);
+            } else {
+                for (int i = 0; i + GRAM <= text.length(); i++) {
+                    and(hits, grams.getOrDefault(text.substring(i, i + GRAM), new long[0]), false);
+                }
+                for (int w = 0; w < words; w++) {
+                    for (long bits = hits[w]; bits != 0; bits &= bits - 1) {
+                        int id = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        if (!matches(id, text, false)) hits[w] &= ~(1L << id);
+                    }
+                }
+            }
+            System.arraycopy(hits, 0, prefix, 0, words);
+            and(prefix, grams.getOrDefault("^" + text.substring(0, Math.min(GRAM, text.length())), new long[0]), false);
+            if (text.length() > GRAM) {
+                for (int w = 0; w < words; w++) {
+                    for (long bits = prefix[w]; bits != 0; bits &= bits - 1) {
+                        int id = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        if (!matches(id, text, true)) prefix[w] &= ~(1L << id);
+                    }
+                }
+            }
+            and(hits, prefix, true);
+        }
+
+        // Prefix matches first, then the rest, each in id order
+        int total = popcount(prefix) + popcount(hits);
+        int[] page = new int[Math.max(0, Math.min(q.limit, total - q.offset))];
+        int skip = q.offset;
+        int n = 0;
+        for (long[] set : new long[][] {prefix, hits}) {
+            for (int w = 0; w < words && n < page.length; w++) {
+                long bits = set[w];
+                int count = Long.bitCount(bits);
+                if (skip >= count) {
+                    skip -= count;
+                    continue;
+                }
+                for (; bits != 0 && n < page.length; bits &= bits - 1) {
+                    if (skip > 0) {
+                        skip--;
+                        continue;
+                    }
+                    page[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+        return new Page(total, page);
+    }
+
+    /* ================= HTTP ================= */
+
+    void handle(HttpExchange e, Profile p) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+        Query q = parse(e);
+        if (q == null) {
+            e.sendResponseHeaders(400, -1);
+            e.close();
+            return;
+        }
+
+        long version;
+        CaughtSet caught;
+        synchronized (p.writeLock) {
+            version = p.seq;
+            caught = p.caught.copy();
+        }
+        Page page = search(q, caught.words(false), caught.words(true));
+
+        e.getResponseHeaders().set("Cache-Control", "no-cache");
+        Main.sendJson(e, 200, w -> {
+            w.beginObject().name("version").value(version).name("total").value(page.total)
+                .name("offset").value(q.offset).name("limit").value(q.limit);
+            w.name("results").beginArray();
+            for (int id : page.ids) {
+                w.beginObject()
+                    .name("apiName").value(Profile.SPECIES.name(id))
+                    .name("name").value(names[id])
+                    .name("speciesId").value(speciesIds[id])
+                    .name("normal").value(caught.isNormal(id))
+                    .name("shiny").value(caught.isShiny(id));
+                w.name("games").beginArray();
+                for (Map.Entry<String, long[]> g : games.entrySet()) {
+                    if ((g.getValue()[id >> 6] & (1L << id)) != 0) w.value(g.getKey());
+                }
+                w.endArray().endObject();
+            }
+            w.endArray().endObject();
+        });
+    }
+
+    // null for anything malformed or naming an unknown game
+    private Query parse(HttpExchange e) {
+        Query q = new Query();
+        String text = Main.queryParam(e, "q");
+        if (text != null) q.q = text;
+        String game = Main.queryParam(e, "game");
+        if (game != null) {
+            for (String g : game.split(",")) {
+                g = g.trim();
+                if (g.isEmpty()) continue;
+                boolean not = g.startsWith("-");
+                if (not) g = g.substring(1);
+                if (!groups.containsKey(g)) return null;
+                (not ? q.notGames : q.games).add(g);
+            }
+        }
+        try {
+            q.caught = flag(Main.queryParam(e, "caught"));
+            q.shiny = flag(Main.queryParam(e, "shiny"));
+            String offset = Main.queryParam(e, "offset");
+            String limit = Main.queryParam(e, "limit");
+            if (offset != null) q.offset = Integer.parseInt(offset);
+            if (limit != null) q.limit = Integer.parseInt(limit);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        if (q.offset < 0 || q.limit < 0 || q.limit > MAX_LIMIT) return null;
+        return q;
+    }
+
+    // Absent or empty means either
+    private static Boolean flag(String v) {
+        if (v == null || v.isEmpty()) return null;
+        switch (v) {
+            case "yes": case "true": case "1": return true;
+            case "no": case "false": case "0": return false;
+            default: throw new IllegalArgumentException(v);
+        }
+    }
+
+    /* ================= INDEX ================= */
+
+    // "Mr. Mime" -> "mrmime", "Flabébé" -> "flabebe"
+    static String normalize(String s) {
+        String plain = Normalizer.normalize(s, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(plain.length());
+        for (int i = 0; i < plain.length(); i++) {
+            char c = Character.toLowerCase(plain.charAt(i));
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private void addGrams(int id, String key) {
+        for (int len = 1; len <= GRAM; len++) {
+            for (int i = 0; i + len <= key.length(); i++) gram(key.substring(i, i + len))[id >> 6] |= 1L << id;
+            if (len <= key.length()) gram("^" + key.substring(0, len))[id >> 6] |= 1L << id;
+        }
+    }
+
+    private long[] gram(String g) {
+        return grams.computeIfAbsent(g, k -> new long[words]);
+    }
+
+    private boolean matches(int id, String text, boolean prefix) {
+        for (String k : keys[id]) {
+            if (prefix ? k.startsWith(text) : k.contains(text)) return true;
+        }
+        return false;
+    }
+
+    // into &= mask (or &= ~mask); missing words in mask count as zero
+    private static void and(long[] into, long[] mask, boolean not) {
+        for (int i = 0; i < into.length; i++) {
+            long m = i < mask.length ? mask[i] : 0;
+            into[i] &= not ? ~m : m;
+        }
+    }
+
+    private static void or(long[] into, long[] other) {
+        for (int i = 0; i < into.length; i++) into[i] |= other[i];
+    }
+
+    private static int popcount(long[] words) {
+        int n = 0;
+        for (long w : words) n += Long.bitCount(w);
+        return n;
+    }
+}
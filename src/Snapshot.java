@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary form of a CaughtSet snapshot (data/caught.bin). The bitsets are
+ * stored as-is, so loading is one read plus two bulk copies when the national
+ * dex hasn't changed since the file was written:
+ *
+ *   int  magic "PDXS"      int  version
+ *   int  crc32 of everything after this field
+ *   long seq               long SpeciesIndex fingerprint
+ *   int  words             long normal[words], long shiny[words]
+ *   int  names, then per name: short length + UTF-8 bytes
+ *
+ * The name table has an entry for each bit position (empty where no flag is
+ * set) and is only read when ids need remapping: a different national.json,
+ * or species interned at runtime above the national range.
+ */
+class Snapshot {
+
+    static final int MAGIC = 0x50445853;
+    static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 4;
+
+    /** Writes set to file via a synced temp file and an atomic rename. */
+    static void write(Path file, CaughtSet set, long seq, SpeciesIndex species) throws IOException {
+        long[] normal = set.words(false);
+        long[] shiny = set.words(true);
+
+        int bits = normal.length * 64;
+        byte[][] names = new byte[bits][];
+        int nameBytes = 0;
+        for (int id = 0; id < bits; id++) {
+            boolean used = (normal[id >>> 6] & (1L << id)) != 0 || (shiny[id >>> 6] & (1L << id)) != 0;
+            String name = used ? species.name(id) : null;
+            names[id] = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            nameBytes += 2 + names[id].length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + 8 + 8 + 4 + normal.length * 16 + 4 + nameBytes);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(0);
+        buf.putLong(seq).putLong(species.fingerprint());
+        buf.putInt(normal.length);
+        buf.asLongBuffer().put(normal).put(shiny);
+        buf.position(buf.position() + normal.length * 16);
+        buf.putInt(bits);
+        for (byte[] n : names) buf.putShort((short) n.length).put(n);
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER, buf.position() - HEADER);
+        buf.putInt(8, (int) crc.getValue());
+        buf.flip();
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads file into target (replacing its contents) and returns the seq
+     * it covers. Throws if the file is truncated, corrupt or from a newer
+     * version; target is untouched in that case.
+     */
+    static long read(Path file, CaughtSet target, SpeciesIndex species) throws IOException {
+        // Read into the heap rather than map: a mapping stays open until GC,
+        // and on Windows that blocks the next write's rename over this file
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException(file + " is too large");
+            buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) throw new IOException(file + " is truncated");
+            }
+            buf.flip();
+        }
+        try {
+            if (buf.getInt() != MAGIC) throw new IOException(file + " is not a snapshot");
+            int version = buf.getInt();
+            if (version != VERSION) throw new IOException(file + " has unsupported version " + version);
+            int expected = buf.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(buf.slice());
+            if ((int) crc.getValue() != expected) throw new IOException(file + " failed its checksum");
+
+            long seq = buf.getLong();
+            long fingerprint = buf.getLong();
+            int words = buf.getInt();
+            long[] normal = new long[words];
+            long[] shiny = new long[words];
+            buf.asLongBuffer().get(normal).get(shiny);
+            buf.position(buf.position() + words * 16);
+
+            // Same national.json: ids up to the national range mean the same
+            // species, so those bits are used as-is and only the ones above
+            // it go through the name table
+            int trusted = fingerprint == species.fingerprint() ? species.national() : 0;
+            long[] highNormal = normal.clone();
+            long[] highShiny = shiny.clone();
+            boolean high = keepAbove(highNormal, trusted) | keepAbove(highShiny, trusted);
+            clearAbove(normal, trusted);
+            clearAbove(shiny, trusted);
+            CaughtSet set = CaughtSet.of(normal, shiny);
+
+            if (high) {
+                int names = buf.getInt();
+                for (int id = 0; id < names; id++) {
+                    byte[] name = new byte[buf.getShort() & 0xFFFF];
+                    buf.get(name);
+                    boolean n = (highNormal[id >>> 6] & (1L << id)) != 0;
+                    boolean s = (highShiny[id >>> 6] & (1L << id)) != 0;
+                    if (n || s) set.set(species.id(new String(name, StandardCharsets.UTF_8)), n, s);
+                }
+            }
+            target.replaceWith(set);
+            return seq;
+        } catch (RuntimeException ex) {
+            // BufferUnderflowException and friends: a short or mangled file
+            throw new IOException(file + " is damaged: " + ex, ex);
+        }
+    }
+
+    // Clears the bits for ids above max
+    private static void clearAbove(long[] words, int max) {
+        for (int w = 0; w < words.length; w++) {
+            int first = w << 6;
+            if (first > max) words[w] = 0;
+            else if (first + 63 > max) words[w] &= -1L >>> (63 - (max - first));
+        }
+    }
+
+    // Clears the bits for ids up to max; true if any bit is left
+    private static boolean keepAbove(long[] words, int max) {
+        boolean any = false;
+        for (int w = 0; w < words.length; w++) {
+            int first = w << 6;
+            if (first + 63 <= max) words[w] = 0;
+            else if (first <= max) words[w] &= ~(-1L >>> (63 - (max - first)));
+            any |= words[w] != 0;
+        }
+        return any;
+    }
+}
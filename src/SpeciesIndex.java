@@ -0,0 +1,150 @@
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Interns PokéAPI species names ("pikachu") to national dex ids (25) so
+ * progress can be stored in CaughtSet bitsets. Seeded from
+ * dex_json/national.json; names it doesn't know get the next free id above
+ * the national range (only for this run — files always store names).
+ */
+class SpeciesIndex {
+
+    static final Path NATIONAL_DEX = Path.of("dex_json/national.json");
+
+    // The index is shared by every profile and never shrinks, so names
+    // clients make up can only take this many ids (see claim())
+    static final int MAX_UNKNOWN = Integer.parseInt(System.getenv().getOrDefault("MAX_UNKNOWN_SPECIES", "4096"));
+
+    private static volatile SpeciesIndex shared;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+    private int next = 1;
+
+    // Ids 1..national come from national.json and are the same every run
+    // that has the same file; fingerprint identifies that mapping.
+    private int national;
+    private long fingerprint;
+
+    static SpeciesIndex shared() {
+        SpeciesIndex s = shared;
+        if (s == null) {
+            synchronized (SpeciesIndex.class) {
+                if (shared == null) shared = load(NATIONAL_DEX);
+                s = shared;
+            }
+        }
+        return s;
+    }
+
+    static SpeciesIndex load(Path nationalDex) {
+        SpeciesIndex index = new SpeciesIndex();
+        if (!Files.exists(nationalDex)) return index;
+        try (InputStream in = Files.newInputStream(nationalDex)) {
+            String[] names = new String[1100];
+            JsonReader r = new JsonReader(in);
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!r.nextName().equals("pokemon_entries")) {
+                    r.skipValue();
+                    continue;
+                }
+                r.beginArray();
+                while (r.hasNext()) {
+                    DexEntry e = DexEntry.read(r);
+                    if (e.speciesId <= 0) continue;
+                    if (e.speciesId >= names.length) names = Arrays.copyOf(names, Math.max(e.speciesId + 1, names.length * 2));
+                    names[e.speciesId] = e.apiName;
+                    index.ids.put(e.apiName, e.speciesId);
+                    index.next = Math.max(index.next, e.speciesId + 1);
+                }
+                r.endArray();
+            }
+            r.endObject();
+            index.names = Arrays.copyOf(names, index.next);
+            index.national = index.next - 1;
+            CRC32 crc = new CRC32();
+            for (int id = 1; id <= index.national; id++) {
+                crc.update(id);
+                if (names[id] != null) crc.update(names[id].getBytes(StandardCharsets.UTF_8));
+            }
+            index.fingerprint = crc.getValue();
+        } catch (Exception ex) {
+            System.out.println("Could not read " + nationalDex + ": " + ex.getMessage());
+        }
+        return index;
+    }
+
+    /** Id for a name, or -1 if it has never been seen. */
+    int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /** Id for a name, assigning a new one if needed. */
+    int id(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) return id;
+            int fresh = next;
+            put(name, fresh);
+            return fresh;
+        }
+    }
+
+    /**
+     * Id for a name from a request: like id(), but once MAX_UNKNOWN names
+     * beyond national.json have been added, a new one gets -1 instead.
+     */
+    int claim(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) return id;
+            if (next - 1 - national >= MAX_UNKNOWN) return -1;
+            int fresh = next;
+            put(name, fresh);
+            return fresh;
+        }
+    }
+
+    /** Name for an id, or null. */
+    String name(int id) {
+        String[] n = names;
+        return id >= 0 && id < n.length ? n[id] : null;
+    }
+
+    /** Highest id seeded from national.json (stable across runs). */
+    int national() {
+        return national;
+    }
+
+    /** Changes whenever the national.json id mapping does. */
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    synchronized int maxId() {
+        return next - 1;
+    }
+
+    private synchronized void put(String name, int id) {
+        // Grown by doubling, so adding n names copies O(n) in total
+        String[] n = names;
+        if (id >= n.length) n = Arrays.copyOf(n, Math.max(id + 1, n.length * 2));
+        n[id] = name;
+        // Publish the name before the id so name(find(x)) never sees null
+        names = n;
+        ids.put(name, id);
+        next = Math.max(next, id + 1);
+    }
+}
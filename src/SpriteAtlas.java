@@ -0,0 +1,367 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+/**
+ * Sprite sheets for a whole dex, so a grid costs a few image requests
+ * instead of one per card:
+ *
+ *   GET /api/atlas/<dex>[?shiny=1]        {"dex","shiny","cell":96,
+ *                                          "sheets":[{"url","width","height"}],
+ *                                          "sprites":{"<speciesId>":[sheet,x,y]}}
+ *   GET /api/atlas/<dex>/<n>.png[?shiny=1] sheet n
+ *
+ * <dex> is any name /api/dex knows (national, overall, a game section).
+ * An atlas is built once from SpriteCache, written under
+ * data/sprites/atlas/ and reused after restarts; its directory is keyed by
+ * the dex's content, so a changed dex gets a new one. Sheet URLs carry that
+ * key, which lets browsers keep them forever. Species without a sprite are
+ * left out of "sprites"; the page shows those with a plain <img>.
+ *
+ * A sprite that can't be fetched (upstream down, not published yet) gets an
+ * empty cell and is left out of "sprites"; it doesn't fail the atlas. An
+ * atlas with such gaps is only kept in memory, and rebuilt after
+ * PARTIAL_RETRY_MS, so a bad first build never gets saved as the dex's
+ * atlas. Sheet URLs name the exact set of species placed (v=<dex>-<set>),
+ * and only a complete atlas's sheets are cached as immutable; a partial
+ * one's, or a URL from another build, get SHORT_MAX_AGE.
+ */
+class SpriteAtlas {
+
+    static final int CELL = 96;
+    static final int COLUMNS = 32;
+    static final int ROWS = 16;             // at most
+    static final int PER_SHEET = COLUMNS * ROWS;
+
+    private static final long BUILD_SECONDS = 120;
+    private static final long PARTIAL_RETRY_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long SHORT_MAX_AGE = 60;
+
+    static final class Atlas {
+        final Path dir;             // null for a partial atlas
+        final byte[][] pngs;        // a partial atlas's sheets, kept in memory
+        final byte[] index;
+        final String etag;
+        final String version;       // the sheet URLs' v=
+        final int sheets;
+        final long retryAt;         // when a partial atlas gets rebuilt
+
+        Atlas(Path dir, byte[] index, int sheets) {
+            this(dir, null, index, sheets, Long.MAX_VALUE);
+        }
+
+        Atlas(byte[][] pngs, byte[] index) {
+            this(null, pngs, index, pngs.length, System.currentTimeMillis() + PARTIAL_RETRY_MS);
+        }
+
+        private Atlas(Path dir, byte[][] pngs, byte[] index, int sheets, long retryAt) {
+            this.dir = dir;
+            this.pngs = pngs;
+            this.index = index;
+            this.sheets = sheets;
+            this.retryAt = retryAt;
+            CRC32 crc = new CRC32();
+            crc.update(index);
+            this.etag = "\"atlas-" + Long.toHexString(crc.getValue()) + "\"";
+            // Read back from the index so saved atlases have it too
+            String json = new String(index, StandardCharsets.UTF_8);
+            int v = json.indexOf("v=");
+            this.version = v < 0 ? "" : json.substring(v + 2, json.indexOf('"', v));
+        }
+    }
+
+    private final SpriteCache sprites;
+    private final DexCatalog catalog;
+    private final Path root;
+
+    private final Map<String, Atlas> built = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Atlas>> building = new ConcurrentHashMap<>();
+
+    // Decoding and encoding is CPU-bound; one atlas at a time is plenty
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(RequestExecutors.named("atlas"));
+
+    SpriteAtlas(SpriteCache sprites, DexCatalog catalog) {
+        this.sprites = sprites;
+        this.catalog = catalog;
+        this.root = sprites.dir().resolve("atlas");
+    }
+
+    void handle(HttpExchange e) throws IOException {
+        if (!e.getRequestMethod().equals("GET")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+
+        // "<dex>" or "<dex>/<n>.png"
+        String path = e.getRequestURI().getPath();
+        String rest = path.startsWith("/api/atlas/") ? path.substring("/api/atlas/".length()) : "";
+        int slash = rest.indexOf('/');
+        DexCatalog.Dex dex = catalog.get(slash < 0 ? rest : rest.substring(0, slash));
+        int sheet = -1;
+        if (slash >= 0) {
+            String file = rest.substring(slash + 1);
+            try {
+                if (file.endsWith(".png")) sheet = Integer.parseInt(file.substring(0, file.length() - ".png".length()));
+            } catch (NumberFormatException ex) {
+                // 404 below
+            }
+        }
+        if (dex == null || (slash >= 0 && sheet < 0)) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+        String shinyParam = Main.queryParam(e, "shiny");
+        boolean shiny = shinyParam != null && (shinyParam.equals("1") || shinyParam.equals("true"));
+
+        Atlas a;
+        try {
+            a = get(dex, shiny).get(BUILD_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            // Missing sprites don't get here, only e.g. a failed write; nothing was cached, so a later try starts over
+            System.out.println("Could not build atlas for " + dex.name + ": " + ex.getCause());
+            e.getResponseHeaders().set("Retry-After", "30");
+            e.sendResponseHeaders(503, -1);
+            e.close();
+            return;
+        } catch (TimeoutException ex) {
+            e.sendResponseHeaders(504, -1);
+            e.close();
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            e.sendResponseHeaders(503, -1);
+            e.close();
+            return;
+        }
+
+        if (sheet < 0) {
+            // Small and cheap to revalidate; a rebuilt atlas shows up right away
+            e.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            e.getResponseHeaders().set("ETag", a.etag);
+            e.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (a.etag.equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+                e.sendResponseHeaders(304, -1);
+                e.close();
+                return;
+            }
+            send(e, a.index);
+            return;
+        }
+
+        if (sheet >= a.sheets) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+        // A complete atlas's URL (?v=) names exactly what's in the sheet, so
+        // the bytes behind it never change. A partial one is rebuilt soon, and
+        // an old URL may get another build's sheet: neither is kept for long.
+        boolean immutable = a.dir != null && a.version.equals(Main.queryParam(e, "v"));
+        e.getResponseHeaders().set("Content-Type", "image/png");
+        e.getResponseHeaders().set("Cache-Control",
+            immutable ? "public, max-age=31536000, immutable" : "public, max-age=" + SHORT_MAX_AGE);
+        send(e, a.pngs != null ? a.pngs[sheet] : Files.readAllBytes(a.dir.resolve(sheet + ".png")));
+    }
+
+    private static void send(HttpExchange e, byte[] body) throws IOException {
+        e.sendResponseHeaders(200, body.length);
+        try (OutputStream out = e.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** The atlas for dex, from memory, disk, or a new build (one per dex at a time). */
+    CompletableFuture<Atlas> get(DexCatalog.Dex dex, boolean shiny) {
+        String key = dex.name + (shiny ? "-shiny-" : "-normal-") + version(dex);
+        Atlas a = built.get(key);
+        if (a != null && a.retryAt > System.currentTimeMillis()) return CompletableFuture.completedFuture(a);
+
+        CompletableFuture<Atlas> f = new CompletableFuture<>();
+        CompletableFuture<Atlas> pending = building.putIfAbsent(key, f);
+        if (pending == null) {
+            f.whenComplete((atlas, ex) -> {
+                if (atlas != null) built.put(key, atlas);
+                building.remove(key, f);
+            });
+            builder.execute(() -> {
+                try {
+                    Atlas loaded = load(root.resolve(key));
+                    f.complete(loaded != null ? loaded : build(dex, shiny, key));
+                } catch (Exception ex) {
+                    f.completeExceptionally(ex);
+                }
+            });
+            pending = f;
+        }
+        // A partial atlas keeps serving while its rebuild runs
+        return a != null ? CompletableFuture.completedFuture(a) : pending;
+    }
+
+    // Changes whenever the dex's entries (or the sheet layout) do
+    private static String version(DexCatalog.Dex dex) {
+        CRC32 crc = new CRC32();
+        // "/full": atlases saved before partial ones stayed in memory may have gaps
+        crc.update((dex.etag + "/" + CELL + "/" + COLUMNS + "x" + ROWS + "/full").getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static Atlas load(Path dir) throws IOException {
+        Path index = dir.resolve("index.json");
+        if (!Files.isRegularFile(index)) return null;
+        int sheets = 0;
+        while (Files.isRegularFile(dir.resolve(sheets + ".png"))) sheets++;
+        return new Atlas(dir, Files.readAllBytes(index), sheets);
+    }
+
+    private Atlas build(DexCatalog.Dex dex, boolean shiny, String key) throws Exception {
+        long start = System.nanoTime();
+
+        // Forms share a species (and sprite), so each id is placed once
+        Set<Integer> unique = new LinkedHashSet<>();
+        for (int id : dex.speciesIds) {
+            if (id > 0 && id <= SpriteCache.MAX_ID) unique.add(id);
+        }
+        List<Integer> ids = new ArrayList<>(unique);
+        // A failed fetch is just a missing sprite
+        List<CompletableFuture<SpriteCache.Sprite>> fetched = new ArrayList<>(ids.size());
+        int[] failed = {0};
+        for (int id : ids) {
+            fetched.add(sprites.get(id, shiny).exceptionally(ex -> {
+                synchronized (failed) {
+                    if (failed[0]++ == 0) System.out.println("Atlas for " + dex.name + ": sprite " + id + " unavailable: " + ex);
+                }
+                return null;
+            }));
+        }
+        try {
+            CompletableFuture.allOf(fetched.toArray(new CompletableFuture<?>[0])).get(BUILD_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            // Build with what arrived; the rest are gaps like failed ones
+        }
+
+        // Every species keeps its cell; one without a sprite leaves it empty
+        List<Integer> placed = new ArrayList<>();
+        BufferedImage[] images = new BufferedImage[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            SpriteCache.Sprite s = fetched.get(i).getNow(null);
+            BufferedImage img = null;
+            try {
+                if (s != null) img = ImageIO.read(new ByteArrayInputStream(s.png));
+            } catch (IOException ex) {
+                // unreadable PNG: leave the cell empty
+            }
+            if (img == null) continue;
+            placed.add(ids.get(i));
+            images[i] = img;
+        }
+
+        // Spread evenly (in whole rows) so 1025 sprites make three similar
+        // sheets rather than two full ones and a sliver
+        int sheets = (ids.size() + PER_SHEET - 1) / PER_SHEET;
+        int perSheet = sheets == 0 ? PER_SHEET : ((ids.size() + sheets - 1) / sheets + COLUMNS - 1) / COLUMNS * COLUMNS;
+        byte[][] pngs = new byte[sheets][];
+        int[][] size = new int[sheets][];
+        for (int s = 0; s < sheets; s++) {
+            int count = Math.min(perSheet, ids.size() - s * perSheet);
+            int width = Math.min(count, COLUMNS) * CELL;
+            int height = ((count + COLUMNS - 1) / COLUMNS) * CELL;
+            size[s] = new int[] {width, height};
+            BufferedImage sheet = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = sheet.createGraphics();
+            for (int k = 0; k < count; k++) {
+                BufferedImage img = images[s * perSheet + k];
+                // Scaled into the cell in case a sprite isn't 96x96
+                if (img != null) g.drawImage(img, (k % COLUMNS) * CELL, (k / COLUMNS) * CELL, CELL, CELL, null);
+            }
+            g.dispose();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(sheet, "png", out);
+            pngs[s] = out.toByteArray();
+        }
+
+        boolean complete = placed.size() == ids.size();
+        CRC32 crc = new CRC32();
+        for (int id : placed) crc.update((id + ",").getBytes(StandardCharsets.US_ASCII));
+        String version = key.substring(key.lastIndexOf('-') + 1) + "-" + Long.toHexString(crc.getValue());
+        String query = "?" + (shiny ? "shiny=1&" : "") + "v=" + version;
+        byte[] index = JsonWriter.toString(w -> {
+            w.beginObject().name("dex").value(dex.name).name("shiny").value(shiny).name("cell").value(CELL);
+            w.name("sheets").beginArray();
+            for (int s = 0; s < sheets; s++) {
+                w.beginObject().name("url").value("/api/atlas/" + dex.name + "/" + s + ".png" + query)
+                    .name("width").value(size[s][0]).name("height").value(size[s][1]).endObject();
+            }
+            w.endArray();
+            w.name("sprites").beginObject();
+            for (int k = 0; k < ids.size(); k++) {
+                if (images[k] == null) continue;
+                int slot = k % perSheet;
+                w.name(String.valueOf(ids.get(k))).beginArray()
+                    .value(k / perSheet).value((slot % COLUMNS) * CELL).value((slot / COLUMNS) * CELL).endArray();
+            }
+            w.endObject();
+            w.endObject();
+        }).getBytes(StandardCharsets.UTF_8);
+
+        if (!complete) {
+            System.out.printf("Built partial %s atlas for %s: %d of %d sprites (%d fetches failed), %d sheets in %d ms (not saved)%n",
+                shiny ? "shiny" : "normal", dex.name, placed.size(), ids.size(), failed[0], sheets, (System.nanoTime() - start) / 1_000_000);
+            return new Atlas(pngs, index);
+        }
+
+        Path tmp = root.resolve(key + ".tmp");
+        deleteDir(tmp);
+        Files.createDirectories(tmp);
+        for (int s = 0; s < sheets; s++) Files.write(tmp.resolve(s + ".png"), pngs[s]);
+        Files.write(tmp.resolve("index.json"), index);
+
+        // index.json goes in last and the directory appears in one rename,
+        // so load() never sees half an atlas
+        Path dir = root.resolve(key);
+        try {
+            Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, dir);
+        } catch (FileAlreadyExistsException ex) {
+            deleteDir(tmp);
+        }
+        System.out.printf("Built %s atlas for %s: %d sprites, %d sheets in %d ms%n", shiny ? "shiny" : "normal",
+            dex.name, placed.size(), sheets, (System.nanoTime() - start) / 1_000_000);
+        return load(dir);
+    }
+
+    private static void deleteDir(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (var paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Sprites for GET /api/sprite/<speciesId>[?shiny=1], so a dex grid loads
+ * its images from this server instead of sending one request per card to
+ * GitHub.
+ *
+ * A lookup tries, in order:
+ *   memory    an LRU capped by total bytes (SPRITE_CACHE_MB, default 32)
+ *   disk      SPRITE_DIR (default data/sprites), laid out like PokeAPI/sprites'
+ *             sprites/pokemon: <id>.png and shiny/<id>.png
+ *   upstream  SPRITE_URL, at most SPRITE_FETCHES requests at a time; what
+ *             comes back is written to disk. Concurrent misses for the same
+ *             sprite wait on one fetch.
+ *
+ * SPRITE_URL=off never goes upstream: point SPRITE_DIR at a local copy of
+ * the sprites and the server runs fully offline. A sprite never changes for
+ * its URL, so responses are cacheable for a year and marked immutable.
+ */
+class SpriteCache {
+
+    static final class Sprite {
+        final byte[] png;
+        final String etag;
+
+        Sprite(byte[] png) {
+            this.png = png;
+            CRC32 crc = new CRC32();
+            crc.update(png);
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "\"";
+        }
+    }
+
+    static final String DEFAULT_URL = "https://raw.githubusercontent.com/PokeAPI/sprites/master/sprites/pokemon";
+
+    // Well above the national dex; anything past it is a typo or a probe
+    static final int MAX_ID = 100_000;
+
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G'};
+
+    // How long an upstream 404 is remembered before asking again
+    private static final long MISSING_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final long WAIT_SECONDS = 20;
+
+    private final Path dir;
+    private final String upstream;          // null when offline
+    private final long maxBytes;
+    private final int maxFetches;
+    private final HttpClient client;
+
+    // Access-ordered, so iteration starts at the least recently used; guarded by this
+    private final LinkedHashMap<String, Sprite> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final Map<String, CompletableFuture<Sprite>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Long> missingUntil = new ConcurrentHashMap<>();
+
+    // Fetches waiting for a slot; guarded by itself
+    private final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+    private int fetching;
+
+    final LongAdder memoryHits = new LongAdder();
+    final LongAdder diskHits = new LongAdder();
+    final LongAdder fetches = new LongAdder();
+    final LongAdder failures = new LongAdder();
+
+    SpriteCache(Path dir, String upstream, long maxBytes, int maxFetches) {
+        this.dir = dir;
+        this.upstream = upstream;
+        this.maxBytes = maxBytes;
+        this.maxFetches = maxFetches;
+        this.client = upstream == null ? null : HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    }
+
+    static SpriteCache fromEnv() {
+        String url = System.getenv().getOrDefault("SPRITE_URL", DEFAULT_URL);
+        return new SpriteCache(
+            Path.of(System.getenv().getOrDefault("SPRITE_DIR", "data/sprites")),
+            url.equalsIgnoreCase("off") ? null : url.replaceAll("/+$", ""),
+            Long.parseLong(System.getenv().getOrDefault("SPRITE_CACHE_MB", "32")) << 20,
+            Integer.parseInt(System.getenv().getOrDefault("SPRITE_FETCHES", "16")));
+    }
+
+    boolean offline() {
+        return upstream == null;
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return memory.size();
+    }
+
+    void handle(HttpExchange e) throws IOException {
+        String method = e.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+
+        String path = e.getRequestURI().getPath();
+        int id = -1;
+        if (path.startsWith("/api/sprite/")) {
+            try {
+                id = Integer.parseInt(path.substring("/api/sprite/".length()));
+            } catch (NumberFormatException ex) {
+                // 404 below
+            }
+        }
+        if (id <= 0 || id > MAX_ID) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+        String shinyParam = Main.queryParam(e, "shiny");
+        boolean shiny = shinyParam != null && (shinyParam.equals("1") || shinyParam.equals("true"));
+
+        Sprite s;
+        try {
+            s = get(id, shiny).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            e.sendResponseHeaders(502, -1);
+            e.close();
+            return;
+        } catch (TimeoutException ex) {
+            e.sendResponseHeaders(504, -1);
+            e.close();
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            e.sendResponseHeaders(503, -1);
+            e.close();
+            return;
+        }
+
+        Headers h = e.getResponseHeaders();
+        if (s == null) {
+            // Might show up later (new sprites, back online), so only briefly
+            h.set("Cache-Control", "public, max-age=3600");
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+
+        h.set("Content-Type", "image/png");
+        h.set("ETag", s.etag);
+        h.set("Cache-Control", "public, max-age=31536000, immutable");
+        if (s.etag.equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+            e.sendResponseHeaders(304, -1);
+            e.close();
+            return;
+        }
+        if (method.equals("HEAD")) {
+            h.set("Content-Length", String.valueOf(s.png.length));
+            e.sendResponseHeaders(200, -1);
+            e.close();
+            return;
+        }
+        e.sendResponseHeaders(200, s.png.length);
+        try (OutputStream out = e.getResponseBody()) {
+            out.write(s.png);
+        }
+    }
+
+    /**
+     * The sprite, or null if there isn't one. Fails only when the upstream
+     * fetch does (network error, 5xx, not a PNG).
+     */
+    CompletableFuture<Sprite> get(int id, boolean shiny) {
+        String key = shiny ? "shiny/" + id : String.valueOf(id);
+        Sprite cached = cached(key);
+        if (cached != null) {
+            memoryHits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<Sprite> f = new CompletableFuture<>();
+        CompletableFuture<Sprite> pending = inFlight.putIfAbsent(key, f);
+        if (pending != null) return pending;
+        f.whenComplete((s, ex) -> inFlight.remove(key, f));
+        load(key, f);
+        return f;
+    }
+
+    private void load(String key, CompletableFuture<Sprite> f) {
+        Path file = dir.resolve(key + ".png");
+        try {
+            if (Files.isRegularFile(file)) {
+                Sprite s = new Sprite(Files.readAllBytes(file));
+                diskHits.increment();
+                remember(key, s);
+                f.complete(s);
+                return;
+            }
+        } catch (IOException ex) {
+            // unreadable copy; fetch a fresh one
+        }
+
+        Long until = missingUntil.get(key);
+        if (upstream == null || (until != null && until > System.currentTimeMillis())) {
+            f.complete(null);
+            return;
+        }
+        schedule(() -> fetch(key, file, f));
+    }
+
+    private void fetch(String key, Path file, CompletableFuture<Sprite> f) {
+        fetches.increment();
+        HttpRequest req;
+        CompletableFuture<HttpResponse<byte[]>> sent;
+        try {
+            req = HttpRequest.newBuilder(URI.create(upstream + "/" + key + ".png"))
+                .timeout(Duration.ofSeconds(15))
+                .header("User-Agent", "PokedexTracker/1.0")
+                .GET()
+                .build();
+            sent = client.sendAsync(req, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (RuntimeException ex) {
+            // A bad URL or a closed client throws here rather than failing
+            // the future; the slot still has to be handed back
+            failures.increment();
+            f.completeExceptionally(ex);
+            finished();
+            return;
+        }
+        sent.whenComplete((res, ex) -> {
+            try {
+                if (ex != null) {
+                    failures.increment();
+                    f.completeExceptionally(ex);
+                } else if (res.statusCode() == 404) {
+                    missingUntil.put(key, System.currentTimeMillis() + MISSING_TTL_MS);
+                    f.complete(null);
+                } else if (res.statusCode() != 200 || !isPng(res.body())) {
+                    failures.increment();
+                    f.completeExceptionally(new IOException("GET " + req.uri() + ": HTTP " + res.statusCode()));
+                } else {
+                    Sprite s = new Sprite(res.body());
+                    remember(key, s);
+                    f.complete(s);
+                    save(file, s.png);
+                }
+            } finally {
+                finished();
+            }
+        });
+    }
+
+    // Runs task now if a fetch slot is free, else when one frees up
+    private void schedule(Runnable task) {
+        synchronized (queued) {
+            if (fetching >= maxFetches) {
+                queued.add(task);
+                return;
+            }
+            fetching++;
+        }
+        task.run();
+    }
+
+    private void finished() {
+        Runnable next;
+        synchronized (queued) {
+            next = queued.poll();
+            if (next == null) fetching--;
+        }
+        if (next != null) next.run();
+    }
+
+    private synchronized Sprite cached(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void remember(String key, Sprite s) {
+        if (s.png.length > maxBytes) return;
+        Sprite old = memory.put(key, s);
+        if (old != null) bytes -= old.png.length;
+        bytes += s.png.length;
+        for (Iterator<Sprite> it = memory.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            bytes -= it.next().png.length;
+            it.remove();
+        }
+    }
+
+    // Temp file + rename, so a crash never leaves half a PNG behind
+    private void save(Path file, byte[] png) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, png);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            System.out.println("Could not save sprite " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private static boolean isPng(byte[] b) {
+        if (b.length < PNG_MAGIC.length) return false;
+        for (int i = 0; i < PNG_MAGIC.length; i++) {
+            if (b[i] != PNG_MAGIC[i]) return false;
+        }
+        return true;
+    }
+}
@@ -1,53 +1,184 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
+// UI state (active game, view per game, per-game progress) for one profile.
+// Readers get an immutable snapshot and never wait; every change is applied
+// by one writer thread to a copy that is then published, and state.json is
+// rewritten on that thread too, once per burst of changes.
 public class StateStore {
-  private final Path file = Path.of("data/state.json");
-  private AppState state = new AppState();
+  private final Path file;
+  private volatile AppState state = new AppState();   // published; never mutated after that
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(RequestExecutors.named("state"));
+  private long version, savedVersion;                  // writer thread only
 
-  public StateStore(){ load(); }
+  // Told about every progress change, e.g. to push it to /api/events
+  public interface Listener { void changed(String event,String json); }
+  private volatile Listener listener=(event,json)->{};
 
+  public void setListener(Listener l){ listener=l; }
+
+  // Told about each per-game flag change, on the writer thread before the
+  // snapshot is published, e.g. to keep ProgressCounters in step
+  public interface EntryListener { void changed(String game,int id,boolean wasNormal,boolean wasShiny,boolean normal,boolean shiny); }
+  private volatile EntryListener entryListener=(g,id,wn,ws,n,sh)->{};
+
+  public void setEntryListener(EntryListener l){ entryListener=l; }
+
+  // New flags for one species of a game given its current ones; null keeps them
+  public interface Edit { Entry apply(String name,boolean normal,boolean shiny); }
+
+  public StateStore(){ this(Path.of("data/state.json")); }
+
+  public StateStore(Path file){ this.file=file; load(); }
+
+  /** Current snapshot. Treat it as read-only; it's shared with other readers. */
   public AppState get(){ return state; }
 
-  public void patch(String json){
-    String g = extract(json,"activeGameId");
-    if(g!=null) state.activeGameId=g;
-    String game = extract(json,"gameId");
-    String view = extract(json,"activeView");
-    if(game!=null && view!=null) state.activeViewByGame.put(game,view);
-    save();
+  public CompletableFuture<AppState> patch(String json){
+    try{
+      return patch(new JsonReader(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))));
+    }catch(IOException e){throw new IllegalArgumentException(e.getMessage(),e);}
   }
 
-  public void setEntry(String game,String id,Entry e){
-    state.progress.putIfAbsent(game,new HashMap<>());
-    state.progress.get(game).put(id,e);
-    save();
+  // {"activeGameId":"gen9"} and/or {"gameId":"gen9","activeView":"shiny"}.
+  // Parsed on the caller's thread, so a malformed body fails right here.
+  public CompletableFuture<AppState> patch(JsonReader r) throws IOException{
+    String g=null, game=null, view=null;
+    r.beginObject();
+    while(r.hasNext()){
+      switch(r.nextName()){
+        case "activeGameId": g=r.nextStringOrNull(); break;
+        case "gameId": game=r.nextStringOrNull(); break;
+        case "activeView": view=r.nextStringOrNull(); break;
+        default: r.skipValue();
+      }
+    }
+    r.endObject();
+    String fg=g, fgame=game, fview=view;
+    return update(s->{
+      if(fg!=null) s.activeGameId=fg;
+      if(fgame!=null && fview!=null) s.activeViewByGame.put(fgame,fview);
+    },null,null);
   }
 
-  public void resetGame(String g){
-    state.progress.remove(g);
-    state.activeViewByGame.remove(g);
-    save();
+  // Applies edit to each of names in one game, as one snapshot and one
+  // "progress" event. Runs on the writer thread, so it reads the flags it
+  // changes. Completes with how many species changed.
+  public CompletableFuture<Integer> editGame(String game,Collection<String> names,Edit edit){
+    int[] changed={0};
+    return update(s->{
+      // Only this game's set is copied; the others stay shared with older snapshots
+      CaughtSet set=s.progress.containsKey(game) ? s.progress.get(game).copy() : new CaughtSet();
+      SpeciesIndex species=SpeciesIndex.shared();
+      for(String name:names){
+        int id=species.id(name);
+        boolean wn=set.isNormal(id), ws=set.isShiny(id);
+        Entry e=edit.apply(name,wn,ws);
+        if(e==null || (e.normal==wn && e.shiny==ws)) continue;
+        set.set(id,e.normal,e.shiny);
+        entryListener.changed(game,id,wn,ws,e.normal,e.shiny);
+        changed[0]++;
+      }
+      s.progress.put(game,set);
+    },"progress",JsonWriter.toString(w->w.beginObject().name("game").value(game).endObject()))
+      .thenApply(next->changed[0]);
   }
 
-  private void load(){
+  // Clears one game's flags and view; other games' sets aren't touched.
+  // Completes with how many species were cleared.
+  public CompletableFuture<Integer> resetGame(String g){
+    int[] cleared={0};
+    return update(s->{
+      CaughtSet old=s.progress.get(g);
+      if(old!=null){
+        try{
+          old.forEach((id,n,sh)->{ entryListener.changed(g,id,n,sh,false,false); cleared[0]++; });
+        }catch(IOException e){throw new UncheckedIOException(e);}
+      }
+      // Empty rather than gone, so the next load doesn't seed it again
+      s.progress.put(g,new CaughtSet());
+      s.activeViewByGame.remove(g);
+    },"reset",JsonWriter.toString(w->w.beginObject().name("game").value(g).endObject()))
+      .thenApply(next->cleared[0]);
+  }
+
+  // Starting sets for games state.json doesn't have yet; no events
+  public CompletableFuture<AppState> seed(Map<String,CaughtSet> sets){
+    return update(s->sets.forEach(s.progress::putIfAbsent),null,null);
+  }
+
+  /** Finishes queued changes and the last save. */
+  public void close(){
+    writer.execute(this::save);
+    writer.shutdown();
     try{
-      if(!Files.exists(file)) save();
-    }catch(Exception ignored){}
+      writer.awaitTermination(10,TimeUnit.SECONDS);
+    }catch(InterruptedException e){Thread.currentThread().interrupt();}
   }
 
-  private void save(){
+  private CompletableFuture<AppState> update(Consumer<AppState> change,String event,String json){
+    CompletableFuture<AppState> done=new CompletableFuture<>();
+    writer.execute(()->{
+      try{
+        AppState next=state.copy();
+        change.accept(next);
+        next.version=++version;
+        state=next;
+        if(event!=null) listener.changed(event,json);
+        done.complete(next);
+      }catch(RuntimeException e){done.completeExceptionally(e); return;}
+      // Queued behind any changes already waiting, so a burst saves once
+      try{
+        writer.execute(this::save);
+      }catch(RejectedExecutionException e){
+        // closing; close() queued a final save
+      }
+    });
+    return done;
+  }
+
+  private void load(){
     try{
-      Files.createDirectories(file.getParent());
-      Files.writeString(file,state.toJson());
-    }catch(Exception e){throw new RuntimeException(e);}
+      if(!Files.exists(file)) return;
+      try(InputStream in=Files.newInputStream(file)){
+        state=AppState.read(new JsonReader(in));
+      }
+    }catch(Exception e){
+      System.out.println("Could not load "+file+": "+e.getMessage());
+    }
   }
 
-  private String extract(String json,String key){
-    int i=json.indexOf("\""+key+"\"");
-    if(i==-1) return null;
-    int s=json.indexOf("\"",json.indexOf(":",i))+1;
-    int e=json.indexOf("\"",s);
-    return json.substring(s,e);
+  // Writer thread only. Synced temp file + rename, so a crash leaves the old
+  // file or the new one, never half (or, after the rename, none) of it.
+  private void save(){
+    if(savedVersion==version) return;
+    AppState s=state;
+    long v=version;
+    try{
+      Path parent=file.toAbsolutePath().getParent();
+      if(parent!=null) Files.createDirectories(parent);
+      Path tmp=file.resolveSibling(file.getFileName()+".tmp");
+      try(FileChannel ch=FileChannel.open(tmp,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING)){
+        JsonWriter w=new JsonWriter(Channels.newOutputStream(ch));
+        s.write(w);
+        w.flush();
+        ch.force(true);
+      }
+      try{
+        Files.move(tmp,file,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+      }catch(AtomicMoveNotSupportedException e){
+        Files.move(tmp,file,StandardCopyOption.REPLACE_EXISTING);
+      }
+      savedVersion=v;
+    }catch(IOException e){
+      System.out.println("Could not save "+file+": "+e.getMessage());
+    }
   }
 }
@@ -0,0 +1,356 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache for files under one directory (static/, dex_json/). Each
+ * file is read once, a gzip variant is prepared for text types, and
+ * responses carry ETag / Last-Modified so revalidation is a 304 with no
+ * body. A WatchService drops entries when files change on disk, so edits
+ * show up on the next request.
+ *
+ * Files larger than LARGE_FILE_BYTES are never cached; they're streamed
+ * from a FileChannel with Range / 206 support, so serving them costs a
+ * fixed transfer buffer rather than a heap copy of the file per request.
+ */
+class StaticAssets {
+
+    static final class Asset {
+        final byte[] bytes;
+        final byte[] gzip;          // null when compression doesn't help
+        final String etag;
+        final long lastModified;    // epoch millis, truncated to seconds
+        final String contentType;
+
+        Asset(byte[] bytes, byte[] gzip, String etag, long lastModified, String contentType) {
+            this.bytes = bytes;
+            this.gzip = gzip;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+        }
+    }
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    static final long LARGE_FILE_BYTES = Long.parseLong(System.getenv().getOrDefault("LARGE_FILE_BYTES", "65536"));
+
+    private final Path root;
+    private final Map<Path, Asset> cache = new ConcurrentHashMap<>();
+
+    // Bumped by the watcher on every invalidation (see get())
+    private final AtomicLong generation = new AtomicLong();
+
+    StaticAssets(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        watch();
+    }
+
+    /** Resolves a request path under the root; null if it would escape it. */
+    Path resolve(String relative) {
+        Path p = root.resolve(relative.startsWith("/") ? relative.substring(1) : relative).normalize();
+        return p.startsWith(root) ? p : null;
+    }
+
+    void serve(HttpExchange e, Path file) throws IOException {
+        String method = e.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            e.sendResponseHeaders(405, -1);
+            e.close();
+            return;
+        }
+
+        if (file != null && Files.isRegularFile(file) && Files.size(file) > LARGE_FILE_BYTES) {
+            serveLarge(e, file);
+            return;
+        }
+
+        Asset a = file == null ? null : get(file.toAbsolutePath().normalize());
+        if (a == null) {
+            e.sendResponseHeaders(404, -1);
+            e.close();
+            return;
+        }
+
+        Headers req = e.getRequestHeaders();
+        String accept = req.getFirst("Accept-Encoding");
+        boolean gzip = a.gzip != null && acceptsGzip(accept);
+        String etag = gzip ? a.etag.substring(0, a.etag.length() - 1) + "-gz\"" : a.etag;
+
+        Headers h = e.getResponseHeaders();
+        h.set("Content-Type", a.contentType);
+        h.set("ETag", etag);
+        h.set("Last-Modified", HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(a.lastModified), ZoneOffset.UTC)));
+        // Names aren't fingerprinted, so browsers must revalidate; that's a 304
+        h.set("Cache-Control", "no-cache");
+        if (a.gzip != null) h.set("Vary", "Accept-Encoding");
+
+        if (notModified(req, etag, a.lastModified)) {
+            e.sendResponseHeaders(304, -1);
+            e.close();
+            return;
+        }
+
+        byte[] body = gzip ? a.gzip : a.bytes;
+        if (gzip) h.set("Content-Encoding", "gzip");
+        if (method.equals("HEAD")) {
+            h.set("Content-Length", String.valueOf(body.length));
+            e.sendResponseHeaders(200, -1);
+            e.close();
+            return;
+        }
+        e.sendResponseHeaders(200, body.length);
+        try (OutputStream out = e.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void serveLarge(HttpExchange e, Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long modified = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000;
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+
+            Headers req = e.getRequestHeaders();
+            Headers h = e.getResponseHeaders();
+            h.set("Content-Type", Main.contentType(file.getFileName().toString()));
+            h.set("ETag", etag);
+            h.set("Last-Modified", HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneOffset.UTC)));
+            h.set("Cache-Control", "no-cache");
+            h.set("Accept-Ranges", "bytes");
+
+            if (notModified(req, etag, modified)) {
+                e.sendResponseHeaders(304, -1);
+                e.close();
+                return;
+            }
+
+            // Honour Range only if If-Range (when sent) still matches this version
+            String range = req.getFirst("Range");
+            String ifRange = req.getFirst("If-Range");
+            if (ifRange != null && !ifRange.equals(etag)) range = null;
+
+            long start = 0;
+            long end = size - 1;
+            int status = 200;
+            if (range != null) {
+                long[] r = parseRange(range, size);
+                if (r == null) {
+                    h.set("Content-Range", "bytes */" + size);
+                    e.sendResponseHeaders(416, -1);
+                    e.close();
+                    return;
+                }
+                if (r.length == 2) {
+                    start = r[0];
+                    end = r[1];
+                    status = 206;
+                    h.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+                }
+            }
+
+            long length = end - start + 1;
+            if (e.getRequestMethod().equals("HEAD")) {
+                h.set("Content-Length", String.valueOf(length));
+                e.sendResponseHeaders(status, -1);
+                e.close();
+                return;
+            }
+            // HttpServer treats 0 as "chunked", so an empty file has to say -1
+            e.sendResponseHeaders(status, length == 0 ? -1 : length);
+            try (OutputStream out = e.getResponseBody()) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long pos = start;
+                while (pos <= end) {
+                    long n = ch.transferTo(pos, end - pos + 1, target);
+                    if (n <= 0) break;
+                    pos += n;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a single "bytes=" range against the file size: {start, end} for
+     * a satisfiable range, an empty array to ignore it (multiple ranges,
+     * unknown unit), or null when it's unsatisfiable (416).
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return new long[0];
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return new long[0];
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            if (start >= size || start > end) return null;
+            return new long[] {start, end};
+        } catch (NumberFormatException ex) {
+            return new long[0];
+        }
+    }
+
+    /**
+     * Whether an Accept-Encoding header allows gzip: listed (or covered by
+     * "*") with a q-value above zero. "gzip;q=0" is a refusal.
+     */
+    static boolean acceptsGzip(String header) {
+        if (header == null) return false;
+        double gzip = -1;
+        double any = -1;
+        for (String part : header.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (!param.startsWith("q=") && !param.startsWith("Q=")) continue;
+                try {
+                    q = Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException ex) {
+                    q = 0;
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) gzip = Math.max(gzip, q);
+            else if (coding.equals("*")) any = q;
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    static boolean notModified(Headers req, String etag, long lastModified) {
+        String inm = req.getFirst("If-None-Match");
+        if (inm != null) {
+            for (String tag : inm.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals(etag) || t.equals("*")) return true;
+            }
+            return false;
+        }
+        String ims = req.getFirst("If-Modified-Since");
+        if (ims == null) return false;
+        try {
+            return ZonedDateTime.parse(ims, HTTP_DATE).toInstant().toEpochMilli() >= lastModified;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    private Asset get(Path file) throws IOException {
+        Asset a = cache.get(file);
+        if (a != null) return a;
+        if (!Files.isRegularFile(file)) return null;
+        // If the watcher invalidated anything while we were reading, this
+        // copy may predate the change: serve it, but don't cache it. The
+        // watcher bumps the generation before it removes, and compute() is
+        // atomic with that remove, so a stale copy can't outlive it.
+        long gen = generation.get();
+        Asset loaded = load(file);
+        Asset cached = cache.compute(file, (k, old) -> old != null ? old : generation.get() == gen ? loaded : null);
+        return cached != null ? cached : loaded;
+    }
+
+    static Asset load(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        long modified = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000;
+        String type = Main.contentType(file.getFileName().toString());
+        return new Asset(bytes, compressible(type) ? gzip(bytes) : null, etag(bytes), modified, type);
+    }
+
+    static String etag(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(bytes.length) + "\"";
+    }
+
+    static boolean compressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.startsWith("application/javascript")
+            || contentType.startsWith("application/json");
+    }
+
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(bytes);
+        }
+        return out.size() < bytes.length ? out.toByteArray() : null;
+    }
+
+    /* ================= INVALIDATION ================= */
+
+    private void watch() {
+        WatchService ws;
+        try {
+            ws = root.getFileSystem().newWatchService();
+            if (!Files.isDirectory(root)) return;
+            try (var dirs = Files.walk(root)) {
+                for (Path d : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) register(ws, d);
+            }
+        } catch (IOException ex) {
+            System.out.println("Static file watching disabled: " + ex.getMessage());
+            return;
+        }
+
+        Thread t = new Thread(() -> {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = ws.take();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    generation.incrementAndGet();
+                    if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        cache.clear();
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) ev.context());
+                    cache.remove(changed);
+                    if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        register(ws, changed);
+                    }
+                }
+                key.reset();
+            }
+        }, "static-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void register(WatchService ws, Path dir) {
+        try {
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException ex) {
+            System.out.println("Could not watch " + dir + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces state changes into batched flushes on a single background thread.
+ *
+ * DURABILITY=async  (default) changed() returns at once; flushed every FLUSH_MS
+ *                   or as soon as FLUSH_MAX changes are pending
+ * DURABILITY=group  changed() waits for the next flush, which runs right away
+ *                   and covers every change that arrived while the previous
+ *                   one was writing
+ * DURABILITY=sync   changed() flushes on the calling thread
+ */
+class WriteBehind implements AutoCloseable {
+
+    enum Durability { SYNC, GROUP, ASYNC }
+
+    interface Flush {
+        void run() throws IOException;
+    }
+
+    private final Durability durability;
+    private final int maxPending;
+    private final Flush flush;
+    private final ScheduledExecutorService flusher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private long changedGen;   // bumped on every change
+    private long flushedGen;   // last change covered by a successful flush
+    private long failedGen;    // last change covered by a failed flush
+    private Exception lastError;
+
+    WriteBehind(Durability durability, long intervalMs, int maxPending, Flush flush) {
+        this.durability = durability;
+        this.maxPending = maxPending;
+        this.flush = flush;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(RequestExecutors.named("flush"));
+        if (durability == Durability.ASYNC) {
+            flusher.scheduleWithFixedDelay(this::flushNow, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static WriteBehind fromEnv(Flush flush) {
+        Durability d = Durability.valueOf(System.getenv().getOrDefault("DURABILITY", "async").toUpperCase(Locale.ROOT));
+        long interval = Long.parseLong(System.getenv().getOrDefault("FLUSH_MS", "500"));
+        int max = Integer.parseInt(System.getenv().getOrDefault("FLUSH_MAX", "256"));
+        return new WriteBehind(d, interval, max, flush);
+    }
+
+    Durability durability() {
+        return durability;
+    }
+
+    /** Records that the state changed; blocks only as the durability mode requires. */
+    void changed() throws IOException {
+        if (durability == Durability.SYNC) {
+            lock.lock();
+            try {
+                flush.run();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        long gen;
+        boolean kick;
+        lock.lock();
+        try {
+            gen = ++changedGen;
+            kick = durability == Durability.GROUP || gen - flushedGen >= maxPending;
+        } finally {
+            lock.unlock();
+        }
+        if (kick) {
+            try {
+                flusher.execute(this::flushNow);
+            } catch (RejectedExecutionException ex) {
+                // close() has begun; its final flush (or the shutdown
+                // snapshot after it) covers this change, so don't wait
+                return;
+            }
+        }
+        if (durability == Durability.GROUP) awaitFlushed(gen);
+    }
+
+    private void awaitFlushed(long gen) throws IOException {
+        lock.lock();
+        try {
+            while (flushedGen < gen) {
+                if (failedGen >= gen) throw new IOException("Flush failed", lastError);
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Only ever runs on the flusher thread (or in close() once it has stopped)
+    private void flushNow() {
+        long target;
+        lock.lock();
+        try {
+            if (changedGen == flushedGen) return;
+            target = changedGen;
+        } finally {
+            lock.unlock();
+        }
+
+        // A RuntimeException must not escape either: the scheduler would
+        // cancel the periodic task for good and waiters would hang
+        Exception error = null;
+        try {
+            flush.run();
+        } catch (IOException | RuntimeException ex) {
+            error = ex;
+            System.out.println("Flush failed (will retry): " + ex);
+        }
+
+        lock.lock();
+        try {
+            if (error == null) {
+                flushedGen = target;
+            } else {
+                failedGen = target;
+                lastError = error;
+            }
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stops the background thread and writes anything still pending. */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flushNow();
+        lock.lock();
+        try {
+            if (flushedGen < changedGen) throw new IOException("Final flush failed", lastError);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -2,68 +2,26 @@
    POKÉDEX TRACKER — FINAL STABLE VERSION (LZA LOAD FIX)
    ========================================================= */
 
-   const GAMES = [
-    { id: "gen1", name: "Red / Blue / Yellow", sections: [{ id: "kanto", name: "Kanto", dex: "kanto" }] },
-    { id: "gen2", name: "Gold / Silver / Crystal", sections: [{ id: "johto", name: "Johto", dex: "original-johto" }] },
-    { id: "gen3", name: "Ruby / Sapphire / Emerald", sections: [{ id: "hoenn", name: "Hoenn", dex: "hoenn" }] },
-    { id: "gen4", name: "Diamond / Pearl / Platinum", sections: [{ id: "sinnoh", name: "Sinnoh", dex: "extended-sinnoh" }] },
-    { id: "gen5", name: "Black / White / B2W2", sections: [{ id: "unova", name: "Unova", dex: "updated-unova" }] },
-    {
-      id: "gen6",
-      name: "X / Y",
-      sections: [
-        { id: "kalos-c", name: "Kalos Central", dex: "kalos-central" },
-        { id: "kalos-co", name: "Kalos Coastal", dex: "kalos-coastal" },
-        { id: "kalos-m", name: "Kalos Mountain", dex: "kalos-mountain" },
-      ],
-    },
-    { id: "gen7", name: "Sun / Moon / Ultra", sections: [{ id: "alola", name: "Alola", dex: "updated-alola" }] },
-    {
-      id: "gen8-swsh",
-      name: "Sword / Shield",
-      sections: [
-        { id: "galar", name: "Galar", dex: "galar" },
-        { id: "ioa", name: "Isle of Armor", dex: "isle-of-armor" },
-        { id: "ct", name: "Crown Tundra", dex: "crown-tundra" },
-      ],
-    },
-    { id: "gen8-pla", name: "Legends: Arceus", sections: [{ id: "hisui", name: "Hisui", dex: "hisui" }] },
-    {
-      id: "gen9",
-      name: "Scarlet / Violet",
-      sections: [
-        { id: "paldea", name: "Paldea", dex: "paldea" },
-        { id: "tm", name: "Kitakami", dex: "kitakami" },
-        { id: "id", name: "Blueberry", dex: "blueberry" },
-      ],
-    },
-  
-    // ✅ LZA (LOCAL JSON)
-    {
-      id: "gen10-lza",
-      name: "Legends: Z-A",
-      local: true,
-      sections: [
-        { id: "kalos-base", name: "Kalos" },
-        { id: "mega-dimension", name: "Mega Dimension" },
-      ],
-    },
-  
-    { id: "overall", name: "Overall Dex", sections: [{ id: "national", name: "National Dex", dex: null }] },
-  ];
+  // Games and their sections come from static/data/games.json (the same
+  // manifest the server counts progress with); "overall" is added here
+  const OVERALL = { id: "overall", name: "Overall Dex", sections: [{ id: "national", name: "National Dex", dex: null }] };
+  let GAMES = [OVERALL];
   
   /* ===================== GLOBAL STATE ===================== */
   
   const modeByGame = {};
-  GAMES.forEach((g) => (modeByGame[g.id] = "normal"));
   
-  let currentGame = GAMES[0];
-  let currentSection = currentGame.sections[0];
+  let currentGame = OVERALL;
+  let currentSection = OVERALL.sections[0];
   
   const dexCache = new Map();
+  const atlasCache = new Map();
+
+  // ?profile=<id> tracks someone else's progress on a shared server
+  const profile = new URLSearchParams(location.search).get("profile");
+  const API = profile ? `/api/profiles/${encodeURIComponent(profile)}` : "/api";
   let overallUnion = [];
-  let lzaData = null;
-  let lzaLoadError = "";
+  let progressCache = null;
   
   /* ======================== DOM =========================== */
   
@@ -71,6 +29,8 @@
   const sectionTabs = document.getElementById("sectionTabs");
   const normalBtn = document.getElementById("normalBtn");
   const shinyBtn = document.getElementById("shinyBtn");
+  const markAllBtn = document.getElementById("markAllBtn");
+  const clearAllBtn = document.getElementById("clearAllBtn");
   const progress = document.getElementById("progress");
   const grid = document.getElementById("grid");
   
@@ -78,28 +38,74 @@
   
   normalBtn.onclick = () => setMode("normal");
   shinyBtn.onclick = () => setMode("shiny");
+  markAllBtn.onclick = () => markSection(true);
+  clearAllBtn.onclick = () => markSection(false);
   
   init();
   
   async function init() {
+    await loadGames();
+    await restoreView();
     buildGameTabs();
     buildSectionTabs();
     updateModeButtons();
     await buildOverallDex();
     await render();
+    listenForChanges();
   }
   
   /* ======================== UI ============================ */
   
+  async function loadGames() {
+    try {
+      const res = await fetch("/static/data/games.json");
+      if (res.ok) GAMES = [...(await res.json()).games, OVERALL];
+    } catch {
+      // only the overall dex until the manifest loads
+    }
+    GAMES.forEach((g) => (modeByGame[g.id] = "normal"));
+    currentGame = GAMES[0];
+    currentSection = currentGame.sections[0];
+  }
+  
+  // Last game tab and normal/shiny mode per game, kept on the server
+  async function restoreView() {
+    try {
+      const res = await fetch(`${API}/view`);
+      if (!res.ok) return;
+      const view = await res.json();
+      for (const [id, m] of Object.entries(view.activeViewByGame || {})) {
+        if (id in modeByGame) modeByGame[id] = m;
+      }
+      const g = GAMES.find((x) => x.id === view.activeGameId);
+      if (g) {
+        currentGame = g;
+        currentSection = g.sections[0];
+      }
+    } catch {
+      // first load or server without /api/view: keep the defaults
+    }
+  }
+  
+  function saveView(patch) {
+    fetch(`${API}/view`, {
+      method: "PATCH",
+      headers: { "Content-Type": "application/json" },
+      body: JSON.stringify(patch),
+    }).catch(() => {});
+  }
+  
   function buildGameTabs() {
     gameTabs.innerHTML = "";
     for (const g of GAMES) {
       const b = document.createElement("button");
       b.className = "tab" + (g.id === currentGame.id ? " active" : "");
       b.textContent = g.name;
+      appendCount(b, progressFor(g.id), g.id);
       b.onclick = async () => {
         currentGame = g;
         currentSection = g.sections[0];
+        saveView({ activeGameId: g.id });
         grid.innerHTML = "";
         buildGameTabs();
         buildSectionTabs();
@@ -116,6 +122,8 @@
       const b = document.createElement("button");
       b.className = "tab" + (s.id === currentSection.id ? " active" : "");
       b.textContent = s.name;
+      const game = progressFor(currentGame.id);
+      appendCount(b, game && game.sections && game.sections.find((x) => x.id === s.id), currentGame.id);
       b.onclick = async () => {
         currentSection = s;
         grid.innerHTML = "";
@@ -128,10 +136,23 @@
   
   function setMode(m) {
     modeByGame[currentGame.id] = m;
+    saveView({ gameId: currentGame.id, activeView: m });
     updateModeButtons();
+    buildGameTabs();
+    buildSectionTabs();
     render();
   }
   
+  // Caught / total on a tab, in that game's current mode
+  function appendCount(tab, counts, gameId) {
+    if (!counts) return;
+    const n = modeByGame[gameId] === "shiny" ? counts.shiny : counts.normal;
+    const span = document.createElement("span");
+    span.className = "tabCount";
+    span.textContent = `${n} / ${counts.total}`;
+    tab.appendChild(span);
+  }
+  
   function updateModeButtons() {
     normalBtn.classList.toggle("active", mode() === "normal");
     shinyBtn.classList.toggle("active", mode() === "shiny");
@@ -143,161 +164,233 @@
   
   /* ======================== API =========================== */
   
+  // Local copy of the server state; refreshed with ?since=<boot>-<version> so
+  // an unchanged state costs a 304 and a changed one only the entries that
+  // moved. After a server restart the boot differs and we get everything.
+  let stateCache = null;
+  let stateEtag = null;
+
   async function getState() {
-    return (await fetch("/api/state")).json();
+    const url = stateCache ? `${API}/state?since=${stateCache.boot}-${stateCache.version}` : `${API}/state`;
+    const headers = stateEtag ? { "If-None-Match": stateEtag } : {};
+    const res = await fetch(url, { headers });
+
+    if (res.status === 304 && stateCache) return stateCache;
+
+    const j = await res.json();
+    if (j.delta && stateCache) {
+      Object.assign(stateCache.caught, j.caught);
+      stateCache.version = j.version;
+    } else {
+      stateCache = { boot: j.boot, version: j.version, caught: j.caught || {} };
+    }
+    stateEtag = res.headers.get("ETag");
+    return stateCache;
+  }
+  
+  // Each game keeps its own caught flags (the state above is the Overall
+  // Dex); ?game= sends the whole set, or a 304 while it hasn't changed
+  const gameStates = new Map();
+  
+  async function getGameState(game) {
+    const cached = gameStates.get(game);
+    const headers = cached ? { "If-None-Match": cached.etag } : {};
+    const res = await fetch(`${API}/state?game=${encodeURIComponent(game)}`, { headers });
+    if (res.status === 304 && cached) return cached.state;
+    const state = await res.json();
+    gameStates.set(game, { etag: res.headers.get("ETag"), state });
+    return state;
+  }
+  
+  // The game whose flags a click or batch changes; none on the Overall tab
+  function gameParam() {
+    return currentGame.id === "overall" ? null : currentGame.id;
+  }
+  
+  // Per-game / per-section counts (GET /api/progress), refetched on every
+  // render (any change renders); they label the tabs
+  async function refreshProgress() {
+    try {
+      const res = await fetch(`${API}/progress`);
+      if (!res.ok) return;
+      progressCache = await res.json();
+    } catch {
+      return;
+    }
+    buildGameTabs();
+    buildSectionTabs();
+  }
+  
+  function progressFor(gameId) {
+    if (!progressCache) return null;
+    if (gameId === "overall") return progressCache.overall;
+    return progressCache.games.find((g) => g.id === gameId);
   }
   
   async function savePokemon(name, normal, shiny) {
     if (shiny) normal = true;
     if (!normal) shiny = false;
   
-    await fetch(`/api/pokemon/${name}`, {
+    const game = gameParam();
+    await fetch(`${API}/pokemon/${name}${game ? `?game=${encodeURIComponent(game)}` : ""}`, {
       method: "PUT",
       headers: { "Content-Type": "application/json" },
       body: JSON.stringify({ normal, shiny }),
     });
   }
   
+  // Changes made in other tabs/devices arrive over SSE. A change that follows
+  // straight on from our copy is applied locally; after a gap (missed events,
+  // reconnect) we fall back to a ?since= fetch.
+  function listenForChanges() {
+    if (!window.EventSource) return;
+    const es = new EventSource(`${API}/events`);
+    // A reconnect may mean a restarted server, whose versions can't be
+    // compared with ours; refetch (a full state if the boot changed)
+    let connected = false;
+    es.addEventListener("open", () => {
+      if (connected && stateCache) render();
+      connected = true;
+    });
+    es.addEventListener("caught", (ev) => {
+      const c = JSON.parse(ev.data);
+      if (!stateCache || c.version <= stateCache.version) return;
+      if (c.version === stateCache.version + 1) {
+        stateCache.caught[c.name] = { normal: c.normal, shiny: c.shiny };
+        stateCache.version = c.version;
+        render(gameParam() ? undefined : stateCache);
+      } else {
+        render();
+      }
+    });
+    es.addEventListener("batch", (ev) => {
+      const b = JSON.parse(ev.data);
+      if (!stateCache || b.version > stateCache.version) render();
+    });
+    // A game's own flags changed (or it was reset): redraw if it's showing
+    // and not already drawn from this change (our own clicks), else just
+    // update its tab count
+    const gameChanged = async (ev) => {
+      const g = JSON.parse(ev.data).game;
+      if (g !== currentGame.id) {
+        refreshProgress();
+        return;
+      }
+      const before = gameStates.get(g);
+      const state = await getGameState(g);
+      if (!before || state !== before.state) render(state);
+    };
+    es.addEventListener("progress", gameChanged);
+    es.addEventListener("reset", gameChanged);
+  }
+
+  // Checks/unchecks every Pokémon in the current section in one request,
+  // in the current mode (same rules as clicking each card)
+  async function markSection(caught) {
+    const body = { mode: mode(), caught };
+    const game = gameParam();
+    if (game) body.game = game;
+    if (currentSection.dex) {
+      body.dex = currentSection.dex;
+    } else {
+      body.names = overallUnion.map((p) => p.apiName);
+    }
+    await fetch(`${API}/pokemon/_batch`, {
+      method: "POST",
+      headers: { "Content-Type": "application/json" },
+      body: JSON.stringify(body),
+    });
+    render();
+  }
+
   /* ===================== DEX LOAD ========================= */
   
-  function speciesId(url) {
-    return Number(url.match(/\/pokemon-species\/(\d+)\//)[1]);
+  // Proxied and cached by the server (see SpriteCache), so a grid doesn't
+  // send a thousand requests to GitHub
+  function sprite(id, shiny) {
+    return `/api/sprite/${id}${shiny ? "?shiny=1" : ""}`;
   }
   
-  function sprite(id, shiny) {
-    return `https://raw.githubusercontent.com/PokeAPI/sprites/master/sprites/pokemon/${shiny ? "shiny/" : ""}${id}.png`;
+  // A whole dex in a few sprite sheets (see SpriteAtlas). A cold server may
+  // still be fetching sprites to build it; rather than hold up the grid,
+  // give up after ATLAS_WAIT_MS and use one <img> per card this time.
+  const ATLAS_WAIT_MS = 3000;
+  
+  function loadAtlas(dex, shiny) {
+    if (!dex) return Promise.resolve(null);
+    const key = `${dex}${shiny ? "?shiny=1" : ""}`;
+    if (!atlasCache.has(key)) {
+      const pending = fetch(`/api/atlas/${key}`)
+        .then((res) => (res.ok ? res.json() : null))
+        .catch(() => null)
+        .then((atlas) => {
+          if (!atlas) atlasCache.delete(key); // try again next render
+          return atlas;
+        });
+      atlasCache.set(key, pending);
+    }
+    const timeout = new Promise((resolve) => setTimeout(() => resolve(null), ATLAS_WAIT_MS));
+    return Promise.race([atlasCache.get(key), timeout]);
+  }
+  
+  function spriteHtml(atlas, id, shiny) {
+    const at = atlas && atlas.sprites[id];
+    if (!at) return `<img src="${sprite(id, shiny)}">`;
+    const [sheet, x, y] = at;
+    return `<div class="sprite" style="background-image: url('${atlas.sheets[sheet].url}'); background-position: -${x}px -${y}px"></div>`;
   }
   
   async function loadDex(dex) {
     if (!dex) return [];
     if (dexCache.has(dex)) return dexCache.get(dex);
   
-    const res = await fetch(`https://pokeapi.co/api/v2/pokedex/${dex}`);
-    const j = await res.json();
-  
-    const list = j.pokemon_entries.map((e) => ({
-      apiName: e.pokemon_species.name,
-      name: title(e.pokemon_species.name),
-      num: e.entry_number,
-      speciesId: speciesId(e.pokemon_species.url),
-    }));
+    // Served from the local dex catalog (built from dex_json/) in the same
+    // {num, apiName, name, speciesId} shape as lza.json
+    const res = await fetch(`/api/dex/${dex}`);
+    if (!res.ok) return [];
+    const list = await res.json();
   
     dexCache.set(dex, list);
     return list;
   }
   
-  /* ================= LZA LOCAL SUPPORT ==================== */
-  
-  async function tryFetchJson(url) {
-    const res = await fetch(url);
-    if (!res.ok) throw new Error(`${url} → HTTP ${res.status}`);
-    return res.json();
-  }
-  
-  async function loadLZA() {
-    if (lzaData || lzaLoadError) return lzaData;
-  
-    const candidates = [
-      "/data/lza.json",
-      "/static/data/lza.json",
-      "/lza.json",
-      "/static/lza.json",
-    ];
-  
-    let lastErr = "";
-    for (const url of candidates) {
-      try {
-        const j = await tryFetchJson(url);
-        // basic shape check
-        if (!j || !Array.isArray(j.sections)) throw new Error(`${url} → JSON missing sections[]`);
-        lzaData = j;
-        lzaLoadError = "";
-        return lzaData;
-      } catch (e) {
-        lastErr = String(e.message || e);
-      }
-    }
-  
-    lzaLoadError =
-      "Could not load lza.json. Tried: " +
-      candidates.join(", ") +
-      ". Last error: " +
-      lastErr;
-  
-    return null;
-  }
-  
-  async function loadLocalDex(gameId, sectionId) {
-    if (gameId !== "gen10-lza") return [];
-    const data = await loadLZA();
-    if (!data) return [];
-    const section = data.sections.find((s) => s.id === sectionId);
-    return section ? section.pokemon : [];
-  }
-  
   /* ===================== OVERALL DEX ======================= */
   
   async function buildOverallDex() {
-    const map = new Map();
-  
-    for (const g of GAMES) {
-      for (const s of g.sections) {
-        let list = [];
-  
-        if (g.local) {
-          list = await loadLocalDex(g.id, s.id);
-        } else if (s.dex) {
-          list = await loadDex(s.dex);
-        }
-  
-        for (const p of list) {
-          if (!map.has(p.apiName)) map.set(p.apiName, p);
-        }
-      }
-    }
-  
-    overallUnion = [...map.values()].sort((a, b) => a.speciesId - b.speciesId);
+    // The server builds the union of every game's dex (sorted by national id)
+    overallUnion = await loadDex("overall");
   }
   
   /* ======================= RENDER ========================= */
   
-  async function render() {
-    const state = await getState();
+  // cached: the current tab's state, already up to date (from an SSE event)
+  async function render(cached) {
+    const game = gameParam();
+    const state = cached || (game ? await getGameState(game) : await getState());
+    refreshProgress();
     const caught = state.caught || {};
     const shinyMode = mode() === "shiny";
   
     let list = [];
+    let atlasDex = null;
   
+    // Legends: Z-A's sections are dexes too (from lza.json, on the server)
     if (currentGame.id === "overall") {
       list = overallUnion;
-    } else if (currentGame.local) {
-      list = await loadLocalDex(currentGame.id, currentSection.id);
+      atlasDex = "overall";
     } else {
       list = await loadDex(currentSection.dex);
+      atlasDex = currentSection.dex;
     }
+    const atlas = list && list.length ? await loadAtlas(atlasDex, shinyMode) : null;
   
     grid.innerHTML = "";
   
-    // ✅ Show LZA error ON PAGE if it fails to load
-    if (currentGame.id === "gen10-lza" && (!list || list.length === 0)) {
+    if (!list || list.length === 0) {
       const msg = document.createElement("div");
       msg.className = "card";
       msg.style.padding = "16px";
-      msg.innerHTML = `
-        <div class="name" style="font-weight:700;">Legends: Z-A is empty</div>
-        <div style="margin-top:8px; opacity:0.9;">
-          ${lzaLoadError ? lzaLoadError : "Loaded 0 Pokémon from lza.json (file exists but has no entries)."}
-        </div>
-        <div style="margin-top:8px; opacity:0.9;">
-          Fix: make sure your server is serving <b>lza.json</b> from one of these paths:
-          <div style="margin-top:6px; font-family: ui-monospace, SFMono-Regular, Menlo, monospace;">
-            /data/lza.json<br/>
-            /static/data/lza.json<br/>
-            /lza.json<br/>
-            /static/lza.json
-          </div>
-        </div>
-      `;
+      msg.innerHTML = `<div class="name" style="font-weight:700;">Could not load ${currentSection.name}</div>`;
       grid.appendChild(msg);
       setProgress(0, 0);
       return;
@@ -319,7 +412,7 @@
       card.className = "card" + (completed ? " complete" : "");
   
       card.innerHTML = `
-        <img src="${sprite(p.speciesId, shinyMode)}">
+        ${spriteHtml(atlas, p.speciesId, shinyMode)}
         <div class="name">${p.name}</div>
         <div class="num">#${numberToShow}</div>
       `;
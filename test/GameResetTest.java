@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resetting one game must clear that game's flags and nothing else. For
+ * each game in static/data/games.json: check everything in every game,
+ * reset that game, then make sure it has nothing caught, every other game
+ * kept all of its species, the Overall Dex dropped exactly the species no
+ * other game has, and /api/progress's counters match a recount.
+ *
+ * Usage, from the project root (it reads dex_json/ like Main does):
+ *   javac -d out src/*.java && javac -cp out -d out-test test/*.java
+ *   java -cp out:out-test GameResetTest
+ * Exits non-zero if a check fails.
+ */
+class GameResetTest {
+
+    static int failures;
+
+    public static void main(String[] args) throws Exception {
+        GameManifest games = GameManifest.load(GameManifest.FILE);
+        DexCatalog dex = DexCatalog.load(Path.of("dex_json"), Path.of("static/data/lza.json"), games);
+        check(games.games.size() > 1, "games.json has more than one game");
+
+        Path dir = Files.createTempDirectory("game-reset-test");
+        try {
+            Profile p = Profile.open("test", dir, games, dex);
+            for (GameManifest.Game reset : games.games) {
+                for (GameManifest.Game g : games.games) {
+                    p.batchInGame(g.id, Map.of(), names(dex, g), false, true);
+                }
+                Map<String, Integer> before = counts(p, games, dex);
+                check(before.get(reset.id) == names(dex, reset).size(), reset.id + " starts fully checked");
+
+                long[] applied = p.resetGame(dex, reset);
+
+                Map<String, Integer> after = counts(p, games, dex);
+                check(after.get(reset.id) == 0, "resetting " + reset.id + " cleared it (" + after.get(reset.id) + " left)");
+                check(applied[0] == before.get(reset.id), "resetting " + reset.id + " reported "
+                    + before.get(reset.id) + " cleared (said " + applied[0] + ")");
+                Set<String> only = names(dex, reset);
+                for (GameManifest.Game other : games.games) {
+                    if (other == reset) continue;
+                    check(after.get(other.id).equals(before.get(other.id)), "resetting " + reset.id + " kept "
+                        + other.id + " at " + before.get(other.id) + " (got " + after.get(other.id) + ")");
+                    only.removeAll(names(dex, other));
+                }
+                for (String name : names(dex, reset)) {
+                    boolean overall = p.caught.isNormal(Profile.SPECIES.id(name));
+                    check(overall == !only.contains(name), "after resetting " + reset.id + ", " + name
+                        + (only.contains(name) ? " left" : " stayed in") + " the Overall Dex");
+                }
+                check(after.equals(counters(p)), "progress counters after resetting " + reset.id
+                    + " match a recount: " + after + " vs " + counters(p));
+                System.out.printf("%-12s %4d species cleared, %3d of them left the Overall Dex%n",
+                    reset.id, applied[0], only.size());
+            }
+            p.close();
+        } finally {
+            deleteDir(dir);
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    static Set<String> names(DexCatalog dex, GameManifest.Game game) {
+        Set<String> out = new LinkedHashSet<>();
+        for (GameManifest.Section s : game.sections) {
+            List<String> section = dex.apiNames(s.dex);
+            if (section != null) out.addAll(section);
+        }
+        return out;
+    }
+
+    // Caught (normal) species per game id, from each game's own flags
+    static Map<String, Integer> counts(Profile p, GameManifest games, DexCatalog dex) {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (GameManifest.Game g : games.games) {
+            CaughtSet own = p.view.get().progress.getOrDefault(g.id, new CaughtSet());
+            int n = 0;
+            for (String name : names(dex, g)) {
+                if (own.isNormal(Profile.SPECIES.id(name))) n++;
+            }
+            out.put(g.id, n);
+        }
+        return out;
+    }
+
+    // The same numbers as ProgressCounters keeps them (GET /api/progress)
+    static Map<String, Integer> counters(Profile p) throws IOException {
+        String json = JsonWriter.toString(w -> {
+            w.beginObject();
+            p.progress.write(w);
+            w.endObject();
+        });
+        Map<String, Integer> out = new LinkedHashMap<>();
+        JsonReader r = new JsonReader(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+        r.beginObject();
+        while (r.hasNext()) {
+            if (!r.nextName().equals("games")) {
+                r.skipValue();
+                continue;
+            }
+            r.beginArray();
+            while (r.hasNext()) {
+                String id = null;
+                int normal = 0;
+                r.beginObject();
+                while (r.hasNext()) {
+                    switch (r.nextName()) {
+                        case "id": id = r.nextString(); break;
+                        case "normal": normal = r.nextInt(); break;
+                        default: r.skipValue();
+                    }
+                }
+                r.endObject();
+                out.put(id, normal);
+            }
+            r.endArray();
+        }
+        r.endObject();
+        return out;
+    }
+
+    static void check(boolean ok, String what) {
+        if (ok) return;
+        failures++;
+        System.out.println("FAIL: " + what);
+    }
+
+    static void deleteDir(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            for (Path f : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(f);
+        }
+    }
+}